@@ -0,0 +1,106 @@
+package com.example.demo.cluster;
+
+import com.example.demo.dto.ChatMessageDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Messages relayed from one node to another over the embedded cluster bus, measured end to end: each invocation
+ * sends a burst and waits until the other node's broker channel has received all of it. {@code maxBatchMessages}
+ * of 1 publishes every message on its own; larger values show the gain from coalescing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClusterRelayBenchmark {
+
+    private static final int BURST = 1000;
+
+    @Param({"1", "100", "1000"})
+    public int maxBatchMessages;
+
+    private final AtomicLong received = new AtomicLong();
+    private long sent;
+
+    private EmbeddedClusterBus sendingBus;
+    private EmbeddedClusterBus receivingBus;
+    private ClusterMessagingTemplate sendingNode;
+    private ClusterMessagingTemplate receivingNode;
+    private ChatMessageDto message;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        String cluster = "bench-" + System.nanoTime();
+
+        sendingBus = new EmbeddedClusterBus(cluster);
+        sendingNode = node("sender", new ExecutorSubscribableChannel(), objectMapper, sendingBus);
+
+        ExecutorSubscribableChannel receivingChannel = new ExecutorSubscribableChannel();
+        receivingChannel.subscribe(delivered -> received.incrementAndGet());
+        receivingBus = new EmbeddedClusterBus(cluster);
+        receivingNode = node("receiver", receivingChannel, objectMapper, receivingBus);
+
+        message = new ChatMessageDto(42L, "Hello there, this is a typical short chat message",
+                LocalDateTime.of(2024, 1, 15, 10, 30, 15, 123_456_789), 1L, "Admin User", null, null, 1L, 7L);
+        message.setType("CHAT");
+    }
+
+    @TearDown
+    public void tearDown() {
+        sendingNode.stop();
+        receivingNode.stop();
+        sendingBus.destroy();
+        receivingBus.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void relayBurst() {
+        for (int i = 0; i < BURST; i++) {
+            sendingNode.convertAndSend("/topic/room/1", message);
+        }
+        sent += BURST;
+        while (received.get() < sent) {
+            LockSupport.parkNanos(10_000);
+        }
+    }
+
+    private ClusterMessagingTemplate node(String nodeId, ExecutorSubscribableChannel brokerChannel,
+                                          ObjectMapper objectMapper, ClusterBus bus) {
+        ClusterMessagingTemplate node = new ClusterMessagingTemplate(
+                new SimpMessagingTemplate(brokerChannel), objectMapper, bus);
+        ReflectionTestUtils.setField(node, "nodeId", nodeId);
+        ReflectionTestUtils.setField(node, "coalesceWindowMs", 5L);
+        ReflectionTestUtils.setField(node, "maxBatchMessages", maxBatchMessages);
+        node.start();
+        return node;
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.demo.config;
+
+import com.example.demo.BenchmarkApplication;
+import com.example.demo.service.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A burst of STOMP {@code /app/chat.sendMessage} frames pushed into the client inbound channel, each doing a
+ * synchronous insert, on the default thread pool and on virtual threads. {@code dbLatencyMs} adds a simulated
+ * database round trip to every insert, which is where virtual threads pay off; without it the work is CPU
+ * bound. The {@code virtual} runs need Java 21.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChannelThreadingBenchmark {
+
+    private static final int BURST = 200;
+
+    @Param({"pooled", "virtual"})
+    public String threading;
+
+    @Param({"0", "2"})
+    public int dbLatencyMs;
+
+    private ConfigurableApplicationContext context;
+    private ExecutorSubscribableChannel inboundChannel;
+    private ThreadPoolExecutor inboundExecutor;
+    private Message<byte[]> message;
+
+    @Setup
+    public void setUp() {
+        boolean virtual = "virtual".equals(threading);
+        if (virtual && !JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE)) {
+            throw new IllegalStateException("Virtual threads need Java 21, running on " + JavaVersion.getJavaVersion());
+        }
+        context = BenchmarkApplication.start("spring.threads.virtual.enabled=" + virtual);
+        inboundChannel = context.getBean("clientInboundChannel", ExecutorSubscribableChannel.class);
+        inboundExecutor = context.getBean("clientInboundChannelExecutor", ThreadPoolTaskExecutor.class)
+                .getThreadPoolExecutor();
+
+        LatencyTrigger.latencyNanos = TimeUnit.MILLISECONDS.toNanos(dbLatencyMs);
+        context.getBean(JdbcTemplate.class).execute("CREATE TRIGGER bench_latency BEFORE INSERT ON chat_messages "
+                + "FOR EACH ROW CALL '" + LatencyTrigger.class.getName() + "'");
+
+        UserService userService = context.getBean(UserService.class);
+        long senderId = userService.getUserSnapshotByEmail("admin@chat.com").id();
+        long receiverId = userService.getUserSnapshotByEmail("user@chat.com").id();
+        String json = "{\"content\":\"Hello there, this is a typical short chat message\",\"senderId\":" + senderId
+                + ",\"receiverId\":" + receiverId + "}";
+
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.SEND);
+        headers.setSessionId("bench-session");
+        headers.setSessionAttributes(new HashMap<>());
+        headers.setDestination("/app/chat.sendMessage");
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        message = MessageBuilder.createMessage(json.getBytes(StandardCharsets.UTF_8), headers.getMessageHeaders());
+    }
+
+    @TearDown
+    public void tearDown() {
+        LatencyTrigger.latencyNanos = 0;
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void sendBurst() throws InterruptedException {
+        // The channel runs one task per subscribed handler for every message.
+        long target = inboundExecutor.getCompletedTaskCount() + (long) BURST * inboundChannel.getSubscribers().size();
+        for (int i = 0; i < BURST; i++) {
+            inboundChannel.send(message);
+        }
+        while (inboundExecutor.getCompletedTaskCount() < target) {
+            Thread.sleep(0, 100_000);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.demo.config;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * H2 row trigger that parks the inserting thread for {@link #latencyNanos}, standing in for the network round
+ * trip of a remote database. The connection stays checked out for the whole wait, as it would with one.
+ */
+public class LatencyTrigger implements Trigger {
+
+    static volatile long latencyNanos;
+
+    @Override
+    public void fire(Connection connection, Object[] oldRow, Object[] newRow) {
+        long latency = latencyNanos;
+        if (latency > 0) {
+            LockSupport.parkNanos(latency);
+        }
+    }
+}
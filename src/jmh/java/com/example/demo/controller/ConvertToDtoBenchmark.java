@@ -0,0 +1,71 @@
+package com.example.demo.controller;
+
+import com.example.demo.dto.ChatMessageDto;
+import com.example.demo.model.ChatMessage;
+import com.example.demo.model.ChatRoom;
+import com.example.demo.model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConvertToDtoBenchmark {
+
+    private final ChatWebSocketController controller = new ChatWebSocketController();
+
+    private ChatMessage directMessage;
+    private ChatMessage roomMessage;
+
+    @Setup
+    public void setUp() {
+        User sender = user(1L, "Admin User");
+        User receiver = user(2L, "Normal User");
+        ChatRoom room = new ChatRoom("General", "General discussion");
+        room.setId(1L);
+
+        directMessage = message(sender, receiver, null);
+        roomMessage = message(sender, null, room);
+    }
+
+    @Benchmark
+    public ChatMessageDto directMessage() {
+        return controller.convertToDto(directMessage);
+    }
+
+    @Benchmark
+    public ChatMessageDto roomMessage() {
+        return controller.convertToDto(roomMessage);
+    }
+
+    private static User user(Long id, String name) {
+        User user = new User(name, name.toLowerCase().replace(' ', '.') + "@chat.com", null);
+        user.setId(id);
+        return user;
+    }
+
+    private static ChatMessage message(User sender, User receiver, ChatRoom room) {
+        ChatMessage message = new ChatMessage();
+        message.setId(42L);
+        message.setContent("Hello there, this is a typical short chat message");
+        message.setTimestamp(LocalDateTime.of(2024, 1, 15, 10, 30, 15, 123_456_789));
+        message.setSender(sender);
+        message.setReceiver(receiver);
+        message.setChatRoom(room);
+        return message;
+    }
+}
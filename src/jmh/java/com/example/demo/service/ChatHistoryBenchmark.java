@@ -0,0 +1,96 @@
+package com.example.demo.service;
+
+import com.example.demo.BenchmarkApplication;
+import com.example.demo.dto.ChatMessagePage;
+import com.example.demo.dto.MessageCursor;
+import com.example.demo.model.ChatMessage;
+import com.example.demo.model.ChatRoom;
+import com.example.demo.repository.ChatRoomRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Room history reads as the room grows: the newest page, a page from the middle of the history, and the
+ * deprecated load-everything query for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChatHistoryBenchmark {
+
+    private static final String INSERT_SQL = "INSERT INTO chat_messages "
+            + "(id, content, timestamp, sender_id, receiver_id, chat_room_id) VALUES (?, ?, ?, ?, NULL, ?)";
+
+    @Param({"1000", "100000"})
+    public int historySize;
+
+    private ConfigurableApplicationContext context;
+    private ChatService chatService;
+    private Long roomId;
+    private MessageCursor middleCursor;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        chatService = context.getBean(ChatService.class);
+        ChatMessageIdAllocator idAllocator = context.getBean(ChatMessageIdAllocator.class);
+        Long senderId = context.getBean(UserService.class).getUserSnapshotByEmail("admin@chat.com").id();
+        roomId = context.getBean(ChatRoomRepository.class).save(new ChatRoom("Benchmark", "History benchmark")).getId();
+
+        LocalDateTime start = LocalDateTime.now().minusDays(30).truncatedTo(ChronoUnit.SECONDS);
+        int middle = historySize / 2;
+        List<Object[]> rows = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            long id = idAllocator.nextId();
+            LocalDateTime timestamp = start.plusSeconds(i);
+            if (i == middle) {
+                middleCursor = new MessageCursor(timestamp, id);
+            }
+            rows.add(new Object[]{id, "History message " + i, Timestamp.valueOf(timestamp), senderId, roomId});
+        }
+        context.getBean(JdbcTemplate.class).batchUpdate(INSERT_SQL, rows);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public ChatMessagePage latestPage() {
+        return chatService.getChatRoomMessagesPage(roomId, null, ChatService.DEFAULT_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public ChatMessagePage middlePage() {
+        return chatService.getChatRoomMessagesPage(roomId, middleCursor, ChatService.DEFAULT_PAGE_SIZE);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public List<ChatMessage> fullHistory() {
+        return chatService.getChatRoomMessages(roomId);
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.demo.service;
+
+import com.example.demo.BenchmarkApplication;
+import com.example.demo.model.ChatMessage;
+import com.example.demo.model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ChatService#sendMessage} against the in-memory H2 database, with synchronous inserts and with the
+ * write-behind queue. Write-behind throughput is the sustained rate: once the queue is full, senders wait for
+ * the flusher.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SendMessageBenchmark {
+
+    @Param({"false", "true"})
+    public boolean writeBehind;
+
+    private ConfigurableApplicationContext context;
+    private ChatService chatService;
+    private User sender;
+    private User receiver;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start("chat.persistence.write-behind.enabled=" + writeBehind,
+                "chat.persistence.write-behind.offer-timeout-ms=60000");
+        chatService = context.getBean(ChatService.class);
+        UserService userService = context.getBean(UserService.class);
+        sender = userService.getUserSnapshotByEmail("admin@chat.com").toReference();
+        receiver = userService.getUserSnapshotByEmail("user@chat.com").toReference();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public ChatMessage directMessage() {
+        return chatService.sendMessage("Hello there, this is a typical short chat message", sender, receiver, null);
+    }
+}
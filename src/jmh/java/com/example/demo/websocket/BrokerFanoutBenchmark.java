@@ -0,0 +1,162 @@
+package com.example.demo.websocket;
+
+import com.example.demo.BenchmarkApplication;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.adapter.standard.StandardWebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bursts of messages published to one topic with N subscribers, through the whole running application: the
+ * broker channel, the simple broker, the client outbound channel and its interceptors, the STOMP encoder and the
+ * session decorators, down to counting container sessions. Each invocation publishes a burst and waits until
+ * every subscriber has been sent every message; the {@code delivered} counter is the score to read, in frames
+ * written to sessions per second.
+ * <p>
+ * {@code broker=simple} is the default configuration. {@code broker=fanout} enables {@code FanoutBrokerConfig}:
+ * the broker channel runs on a {@link DestinationPartitionedTaskExecutor} and every session is wrapped in a
+ * {@link BoundedOutboundSession} writing through the container's asynchronous send. {@code encoder=shared} is
+ * the application default {@link SharedFrameStompEncoder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BrokerFanoutBenchmark {
+
+    private static final String TOPIC = "/topic/room/1";
+
+    private static final int BURST = 10;
+
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final byte[] PAYLOAD = ("{\"id\":42,\"content\":\"Hello there, this is a typical short chat message\","
+            + "\"timestamp\":\"2024-01-15T10:30:15.123456789\",\"senderId\":1,\"senderName\":\"Admin User\","
+            + "\"receiverId\":null,\"receiverName\":null,\"chatRoomId\":1,\"seq\":7,\"type\":\"CHAT\"}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Param({"1000", "10000"})
+    public int subscribers;
+
+    @Param({"simple", "fanout"})
+    public String broker;
+
+    @Param({"default", "shared"})
+    public String encoder;
+
+    private final LongAdder sentFrames = new LongAdder();
+    private ConfigurableApplicationContext context;
+    private SubscribableChannel brokerChannel;
+    private Message<byte[]> message;
+    private long expectedFrames;
+
+    /**
+     * Frames delivered to sessions, reported by JMH as a rate next to the primary score.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Delivered {
+
+        public long delivered;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            delivered = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        context = BenchmarkApplication.start(
+                "chat.broker.fanout.enabled=" + "fanout".equals(broker),
+                "chat.broker.shared-frames.enabled=" + "shared".equals(encoder),
+                "chat.search.enabled=false",
+                "chat.mailbox.enabled=false");
+        WebSocketHandler webSocketHandler = context.getBean("subProtocolWebSocketHandler", WebSocketHandler.class);
+        brokerChannel = context.getBean("brokerChannel", SubscribableChannel.class);
+
+        for (int i = 0; i < subscribers; i++) {
+            StandardWebSocketSession session = new StandardWebSocketSession(new HttpHeaders(), new HashMap<>(),
+                    null, null);
+            session.initializeNativeSession(CountingNativeSession.create("session-" + i, sentFrames));
+            webSocketHandler.afterConnectionEstablished(session);
+            webSocketHandler.handleMessage(session,
+                    new TextMessage("CONNECT\naccept-version:1.2\nheart-beat:0,0\n\n\0"));
+            webSocketHandler.handleMessage(session,
+                    new TextMessage("SUBSCRIBE\nid:sub-0\ndestination:" + TOPIC + "\n\n\0"));
+        }
+
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setDestination(TOPIC);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        message = MessageBuilder.createMessage(PAYLOAD, headers.getMessageHeaders());
+
+        // Every session has been sent its CONNECTED frame once all CONNECTs are through the inbound channel.
+        expectedFrames = subscribers;
+        awaitSentFrames();
+        SimpleBrokerMessageHandler simpleBroker = context.getBean(SimpleBrokerMessageHandler.class);
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (simpleBroker.getSubscriptionRegistry().findSubscriptions(message).size() < subscribers) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Not every session subscribed to " + TOPIC);
+            }
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void publishBurst(Delivered counters) {
+        for (int i = 0; i < BURST; i++) {
+            brokerChannel.send(message);
+        }
+        expectedFrames += (long) BURST * subscribers;
+        awaitSentFrames();
+        counters.delivered += (long) BURST * subscribers;
+    }
+
+    private void awaitSentFrames() {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (sentFrames.sum() < expectedFrames) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Sessions were sent " + sentFrames.sum() + " of "
+                        + expectedFrames + " frames; the outbound buffers dropped some");
+            }
+            LockSupport.parkNanos(10_000);
+        }
+    }
+}
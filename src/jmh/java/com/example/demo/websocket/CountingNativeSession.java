@@ -0,0 +1,89 @@
+package com.example.demo.websocket;
+
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Container WebSocket session that counts every text frame written to it and drops it, standing in for a client
+ * with an infinitely fast socket. Asynchronous sends complete inline on the sending thread, so the bounded
+ * outbound sessions of the fan-out mode run their fast path. Everything the application does not call returns
+ * a default value.
+ */
+public final class CountingNativeSession {
+
+    private static final URI URI = java.net.URI.create("ws://localhost/ws");
+
+    private CountingNativeSession() {
+    }
+
+    public static Session create(String id, LongAdder sentFrames) {
+        Map<String, Object> userProperties = new HashMap<>();
+        RemoteEndpoint.Basic basic = proxy(RemoteEndpoint.Basic.class, (method, args) -> {
+            if (method.equals("sendText")) {
+                sentFrames.increment();
+            }
+            return null;
+        });
+        RemoteEndpoint.Async async = proxy(RemoteEndpoint.Async.class, (method, args) -> {
+            if (method.equals("sendText") && args.length == 2 && args[1] instanceof SendHandler handler) {
+                sentFrames.increment();
+                handler.onResult(new SendResult());
+            }
+            return null;
+        });
+        return proxy(Session.class, (method, args) -> switch (method) {
+            case "getId" -> id;
+            case "isOpen" -> true;
+            case "getRequestURI" -> URI;
+            case "getBasicRemote" -> basic;
+            case "getAsyncRemote" -> async;
+            case "getUserProperties" -> userProperties;
+            case "getNegotiatedExtensions" -> List.of();
+            case "getPathParameters", "getRequestParameterMap" -> Map.of();
+            case "getNegotiatedSubprotocol", "getQueryString", "getUserPrincipal" -> null;
+            case "getMaxTextMessageBufferSize", "getMaxBinaryMessageBufferSize" -> Integer.MAX_VALUE;
+            default -> null;
+        });
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (self, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(self);
+                    case "equals" -> self == args[0];
+                    default -> type.getSimpleName();
+                };
+            }
+            Object result = handler.invoke(method.getName(), args != null ? args : new Object[0]);
+            return result != null ? result : defaultValue(method.getReturnType());
+        });
+        return type.cast(proxy);
+    }
+
+    private static Object defaultValue(Class<?> returnType) {
+        if (returnType == boolean.class) {
+            return false;
+        }
+        if (returnType == long.class) {
+            return 0L;
+        }
+        if (returnType == int.class) {
+            return 0;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.demo.archive;
+
+import java.time.LocalDateTime;
+
+/**
+ * A chat message as stored in the {@link MessageArchive}: the {@code chat_messages} columns, with users and
+ * chat room by id.
+ */
+public record ArchivedMessage(long id, LocalDateTime timestamp, Long seq, long senderId, Long receiverId,
+                              Long chatRoomId, String content) {
+}
@@ -0,0 +1,459 @@
+package com.example.demo.archive;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold tier of the message history, filled by {@link MessageTieringJob}: append-only segment files under
+ * {@code chat.archive.dir}, one directory per chat room and direct conversation. A segment is a run of
+ * Deflate-compressed blocks of up to {@code block-messages} messages in {@code (timestamp, id)} order, and its
+ * {@code .idx} file is a sparse index with one fixed-size entry (first key, offset, sizes) per block, so a read
+ * binary-searches the index and inflates only the blocks it needs. Both files are read through memory mapping.
+ * <p>
+ * A block becomes visible when its index entry is written after it, and whatever follows the last indexed block is
+ * cut off when a conversation is opened, so an interrupted append leaves nothing behind.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.archive.enabled", havingValue = "true")
+public class MessageArchive {
+
+    // First timestamp and id, offset, compressed and raw size, message count.
+    private static final int ENTRY_BYTES = 8 + 8 + 8 + 4 + 4 + 4;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final long NULL = Long.MIN_VALUE;
+
+    private final Path dir;
+    private final int blockMessages;
+    private final long segmentBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock.
+    private final Map<String, Conversation> conversations = new HashMap<>();
+
+    public MessageArchive(@Value("${chat.archive.dir:data/archive}") String dir,
+                          @Value("${chat.archive.block-messages:128}") int blockMessages,
+                          @Value("${chat.archive.segment-bytes:67108864}") long segmentBytes) {
+        this.dir = Path.of(dir);
+        this.blockMessages = blockMessages;
+        this.segmentBytes = segmentBytes;
+    }
+
+    public static String roomKey(Long chatRoomId) {
+        return "room-" + chatRoomId;
+    }
+
+    public static String directKey(Long user1Id, Long user2Id) {
+        return "direct-" + Math.min(user1Id, user2Id) + "-" + Math.max(user1Id, user2Id);
+    }
+
+    /**
+     * The conversation a message is archived under: its chat room, else its direct conversation. Messages with
+     * neither are not part of any history and share one conversation.
+     */
+    public static String keyOf(ArchivedMessage message) {
+        if (message.chatRoomId() != null) {
+            return roomKey(message.chatRoomId());
+        }
+        return message.receiverId() != null ? directKey(message.senderId(), message.receiverId()) : "unaddressed";
+    }
+
+    /**
+     * Appends messages, oldest first, to a conversation. Messages that are not newer than the conversation's last
+     * archived message were archived before and are skipped. Returns the number appended.
+     */
+    public int append(String key, List<ArchivedMessage> oldestFirst) throws IOException {
+        lock.lock();
+        try {
+            Conversation conversation = open(key);
+            List<ArchivedMessage> fresh = new ArrayList<>(oldestFirst.size());
+            for (ArchivedMessage message : oldestFirst) {
+                if (compare(message, conversation.lastMicros, conversation.lastId) > 0) {
+                    fresh.add(message);
+                    conversation.lastMicros = micros(message.timestamp());
+                    conversation.lastId = message.id();
+                    if (message.seq() != null) {
+                        conversation.lastSeq = Math.max(conversation.lastSeq, message.seq());
+                    }
+                }
+            }
+            if (fresh.isEmpty()) {
+                return 0;
+            }
+            Files.createDirectories(conversation.dir);
+            for (int from = 0; from < fresh.size(); from += blockMessages) {
+                writeBlock(writableSegment(conversation), fresh.subList(from, Math.min(from + blockMessages, fresh.size())));
+            }
+            return fresh.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns every archived message of a conversation, oldest first.
+     */
+    public List<ArchivedMessage> readAll(String key) throws IOException {
+        List<ArchivedMessage> messages = new ArrayList<>();
+        for (SegmentView segment : segments(key)) {
+            ByteBuffer index = map(segment.index(), (long) segment.blocks() * ENTRY_BYTES);
+            ByteBuffer data = map(segment.data(), segment.length());
+            for (int block = 0; block < segment.blocks(); block++) {
+                messages.addAll(readBlock(data, index, block));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Returns up to {@code limit} archived messages of a conversation older than {@code (timestamp, id)}, newest
+     * first; with a null {@code timestamp}, the newest archived messages.
+     */
+    public List<ArchivedMessage> readBefore(String key, LocalDateTime timestamp, Long id, int limit)
+            throws IOException {
+        long beforeMicros = timestamp != null ? micros(timestamp) : Long.MAX_VALUE;
+        long beforeId = timestamp != null ? id : Long.MAX_VALUE;
+        List<ArchivedMessage> messages = new ArrayList<>(Math.min(limit, blockMessages));
+        List<SegmentView> segments = segments(key);
+        for (int s = segments.size() - 1; s >= 0 && messages.size() < limit; s--) {
+            SegmentView segment = segments.get(s);
+            ByteBuffer index = map(segment.index(), (long) segment.blocks() * ENTRY_BYTES);
+            ByteBuffer data = map(segment.data(), segment.length());
+            for (int block = lastBlockBefore(index, segment.blocks(), beforeMicros, beforeId);
+                 block >= 0 && messages.size() < limit; block--) {
+                List<ArchivedMessage> blockMessages = readBlock(data, index, block);
+                for (int i = blockMessages.size() - 1; i >= 0 && messages.size() < limit; i--) {
+                    ArchivedMessage message = blockMessages.get(i);
+                    if (compare(message, beforeMicros, beforeId) < 0) {
+                        messages.add(message);
+                    }
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Highest sequence number archived for a conversation, or 0.
+     */
+    public long lastSeq(String key) throws IOException {
+        lock.lock();
+        try {
+            return open(key).lastSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held.
+    private Conversation open(String key) throws IOException {
+        Conversation conversation = conversations.get(key);
+        if (conversation != null) {
+            return conversation;
+        }
+        conversation = new Conversation(dir.resolve(key));
+        if (Files.isDirectory(conversation.dir)) {
+            List<Path> indexes;
+            try (Stream<Path> files = Files.list(conversation.dir)) {
+                indexes = files.filter(file -> file.getFileName().toString().endsWith(INDEX_SUFFIX)).sorted().toList();
+            }
+            for (Path index : indexes) {
+                String name = index.getFileName().toString();
+                Segment segment = new Segment(conversation.dir,
+                        Integer.parseInt(name.substring(0, name.length() - INDEX_SUFFIX.length())));
+                recover(segment);
+                conversation.segments.add(segment);
+            }
+            for (int s = conversation.segments.size() - 1; s >= 0; s--) {
+                Segment segment = conversation.segments.get(s);
+                if (segment.blocks > 0) {
+                    ByteBuffer index = map(segment.index, (long) segment.blocks * ENTRY_BYTES);
+                    List<ArchivedMessage> last = readBlock(map(segment.data, segment.length), index, segment.blocks - 1);
+                    ArchivedMessage newest = last.get(last.size() - 1);
+                    conversation.lastMicros = micros(newest.timestamp());
+                    conversation.lastId = newest.id();
+                    for (ArchivedMessage message : last) {
+                        if (message.seq() != null) {
+                            conversation.lastSeq = Math.max(conversation.lastSeq, message.seq());
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        conversations.put(key, conversation);
+        return conversation;
+    }
+
+    // Drops a torn index entry and any data after the last indexed block.
+    private static void recover(Segment segment) throws IOException {
+        try (FileChannel index = FileChannel.open(segment.index, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment.blocks = (int) (index.size() / ENTRY_BYTES);
+            index.truncate((long) segment.blocks * ENTRY_BYTES);
+            if (segment.blocks > 0) {
+                ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES);
+                readFully(index, entry, (long) (segment.blocks - 1) * ENTRY_BYTES);
+                segment.length = entry.getLong(16) + entry.getInt(24);
+            }
+        }
+        try (FileChannel data = FileChannel.open(segment.data, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            if (data.size() < segment.length) {
+                throw new IOException("Archive segment " + segment.data + " is shorter than its index");
+            }
+            data.truncate(segment.length);
+        }
+    }
+
+    // Called with the lock held.
+    private Segment writableSegment(Conversation conversation) {
+        Segment last = conversation.segments.isEmpty() ? null : conversation.segments.get(conversation.segments.size() - 1);
+        if (last == null || last.length >= segmentBytes) {
+            last = new Segment(conversation.dir, last == null ? 1 : last.number + 1);
+            conversation.segments.add(last);
+        }
+        return last;
+    }
+
+    // Called with the lock held.
+    private static void writeBlock(Segment segment, List<ArchivedMessage> messages) throws IOException {
+        byte[] raw = encode(messages);
+        byte[] compressed = deflate(raw);
+        try (FileChannel data = FileChannel.open(segment.data, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            writeFully(data, ByteBuffer.wrap(compressed), segment.length);
+            data.force(false);
+        }
+        ArchivedMessage first = messages.get(0);
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES)
+                .putLong(micros(first.timestamp()))
+                .putLong(first.id())
+                .putLong(segment.length)
+                .putInt(compressed.length)
+                .putInt(raw.length)
+                .putInt(messages.size())
+                .flip();
+        try (FileChannel index = FileChannel.open(segment.index, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            writeFully(index, entry, (long) segment.blocks * ENTRY_BYTES);
+            index.force(false);
+        }
+        segment.length += compressed.length;
+        segment.blocks++;
+    }
+
+    private List<SegmentView> segments(String key) throws IOException {
+        lock.lock();
+        try {
+            return open(key).segments.stream()
+                    .map(segment -> new SegmentView(segment.data, segment.index, segment.length, segment.blocks))
+                    .toList();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Index of the last block whose first message is older than the given key, or -1.
+    private static int lastBlockBefore(ByteBuffer index, int blocks, long beforeMicros, long beforeId) {
+        int low = 0;
+        int high = blocks - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = middle * ENTRY_BYTES;
+            long firstMicros = index.getLong(entry);
+            long firstId = index.getLong(entry + 8);
+            if (firstMicros < beforeMicros || (firstMicros == beforeMicros && firstId < beforeId)) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private static List<ArchivedMessage> readBlock(ByteBuffer data, ByteBuffer index, int block) throws IOException {
+        int entry = block * ENTRY_BYTES;
+        int offset = (int) index.getLong(entry + 16);
+        int compressedLength = index.getInt(entry + 24);
+        byte[] raw = new byte[index.getInt(entry + 28)];
+        int count = index.getInt(entry + 32);
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data.slice(offset, compressedLength));
+            int inflated = 0;
+            while (inflated < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, inflated, raw.length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != raw.length) {
+                throw new IOException("Truncated archive block at offset " + offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive block at offset " + offset, e);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        List<ArchivedMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long id = in.getLong();
+            LocalDateTime timestamp = timestamp(in.getLong());
+            Long seq = nullable(in.getLong());
+            long senderId = in.getLong();
+            Long receiverId = nullable(in.getLong());
+            Long chatRoomId = nullable(in.getLong());
+            int contentLength = in.getInt();
+            String content = null;
+            if (contentLength >= 0) {
+                content = new String(raw, in.position(), contentLength, StandardCharsets.UTF_8);
+                in.position(in.position() + contentLength);
+            }
+            messages.add(new ArchivedMessage(id, timestamp, seq, senderId, receiverId, chatRoomId, content));
+        }
+        return messages;
+    }
+
+    private static byte[] encode(List<ArchivedMessage> messages) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(messages.size() * 96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (ArchivedMessage message : messages) {
+            out.writeLong(message.id());
+            out.writeLong(micros(message.timestamp()));
+            out.writeLong(orNull(message.seq()));
+            out.writeLong(message.senderId());
+            out.writeLong(orNull(message.receiverId()));
+            out.writeLong(orNull(message.chatRoomId()));
+            if (message.content() == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] content = message.content().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(content.length);
+                out.write(content);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static MappedByteBuffer map(Path file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of " + channel);
+            }
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    private static int compare(ArchivedMessage message, long micros, long id) {
+        int byTime = Long.compare(micros(message.timestamp()), micros);
+        return byTime != 0 ? byTime : Long.compare(message.id(), id);
+    }
+
+    // Timestamps are stored as microseconds, the precision of the TIMESTAMP column.
+    private static long micros(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + timestamp.getNano() / 1_000;
+    }
+
+    private static LocalDateTime timestamp(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                (int) Math.floorMod(micros, 1_000_000) * 1_000, ZoneOffset.UTC);
+    }
+
+    private static long orNull(Long value) {
+        return value != null ? value : NULL;
+    }
+
+    private static Long nullable(long value) {
+        return value != NULL ? value : null;
+    }
+
+    private static final class Conversation {
+        private final Path dir;
+        private final List<Segment> segments = new ArrayList<>();
+        private long lastMicros = Long.MIN_VALUE;
+        private long lastId = Long.MIN_VALUE;
+        private long lastSeq;
+
+        private Conversation(Path dir) {
+            this.dir = dir;
+        }
+    }
+
+    private static final class Segment {
+        private final int number;
+        private final Path data;
+        private final Path index;
+        private long length;
+        private int blocks;
+
+        private Segment(Path dir, int number) {
+            this.number = number;
+            String name = String.format("%08d", number);
+            this.data = dir.resolve(name + SEGMENT_SUFFIX);
+            this.index = dir.resolve(name + INDEX_SUFFIX);
+        }
+    }
+
+    private record SegmentView(Path data, Path index, long length, int blocks) {
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.demo.archive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.example.demo.search.MessageSearchIndex;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Moves chat messages older than {@code max-age-ms} from the database into the {@link MessageArchive}, in batches
+ * of {@code batch-size}, oldest first. A batch is deleted only after it was written to the archive; if the job
+ * stops in between, the next run finds the rows again and the archive skips the ones it already has. Deleted rows
+ * are also removed from the {@link MessageSearchIndex}, which only covers the database.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.archive.enabled", havingValue = "true")
+public class MessageTieringJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageTieringJob.class);
+
+    private static final String SELECT_SQL = "SELECT id, content, timestamp, seq, sender_id, receiver_id, chat_room_id "
+            + "FROM chat_messages WHERE timestamp < ? ORDER BY timestamp, id LIMIT ?";
+
+    private static final String DELETE_SQL = "DELETE FROM chat_messages WHERE id = ?";
+
+    private final MessageArchive archive;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectProvider<MessageSearchIndex> searchIndex;
+    private final long maxAgeMs;
+    private final int batchSize;
+
+    private final ReentrantLock runLock = new ReentrantLock();
+    private final LongAdder moved = new LongAdder();
+
+    public MessageTieringJob(MessageArchive archive, JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager,
+                             ObjectProvider<MessageSearchIndex> searchIndex,
+                             @Value("${chat.archive.max-age-ms:2592000000}") long maxAgeMs,
+                             @Value("${chat.archive.batch-size:5000}") int batchSize) {
+        this.archive = archive;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.searchIndex = searchIndex;
+        this.maxAgeMs = maxAgeMs;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${chat.archive.interval-ms:3600000}")
+    public void run() {
+        try {
+            archiveOldMessages();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to archive old chat messages, will retry", e);
+        }
+    }
+
+    /**
+     * Archives every message older than the configured age and returns how many were moved. Returns 0 straight
+     * away if another run is in progress.
+     */
+    public long archiveOldMessages() {
+        if (!runLock.tryLock()) {
+            return 0;
+        }
+        try {
+            Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minusNanos(maxAgeMs * 1_000_000));
+            long total = 0;
+            while (true) {
+                List<ArchivedMessage> batch = jdbcTemplate.query(SELECT_SQL, (rs, rowNum) -> new ArchivedMessage(
+                        rs.getLong("id"),
+                        rs.getTimestamp("timestamp").toLocalDateTime(),
+                        rs.getObject("seq", Long.class),
+                        rs.getLong("sender_id"),
+                        rs.getObject("receiver_id", Long.class),
+                        rs.getObject("chat_room_id", Long.class),
+                        rs.getString("content")), cutoff, batchSize);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                Map<String, List<ArchivedMessage>> byConversation = batch.stream()
+                        .collect(Collectors.groupingBy(MessageArchive::keyOf, LinkedHashMap::new, Collectors.toList()));
+                try {
+                    for (Map.Entry<String, List<ArchivedMessage>> conversation : byConversation.entrySet()) {
+                        archive.append(conversation.getKey(), conversation.getValue());
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot write message archive", e);
+                }
+                List<Long> ids = batch.stream().map(ArchivedMessage::id).toList();
+                transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(DELETE_SQL,
+                        ids.stream().map(id -> new Object[]{id}).toList()));
+                searchIndex.ifAvailable(index -> index.delete(ids));
+                moved.add(batch.size());
+                total += batch.size();
+                if (batch.size() < batchSize) {
+                    break;
+                }
+            }
+            if (total > 0) {
+                logger.info("Archived {} chat messages older than {}", total, cutoff);
+            }
+            return total;
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    public long getMovedCount() {
+        return moved.sum();
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.demo.cluster;
+
+import java.util.List;
+
+/**
+ * Messages one node publishes to the rest of the cluster during a single coalescing window, grouped by target.
+ */
+public record ClusterBatch(String originNodeId, List<ClusterFrame> frames) {
+
+    /**
+     * Serialized payloads for one destination, in send order. {@code user} is set for user destinations such as
+     * {@code /queue/messages}, and {@code null} for broadcast destinations.
+     */
+    public record ClusterFrame(String destination, String user, List<byte[]> payloads) {
+    }
+}
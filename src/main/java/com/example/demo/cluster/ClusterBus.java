@@ -0,0 +1,14 @@
+package com.example.demo.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Transport that carries broker traffic between application instances. Each published batch must reach every
+ * other node of the cluster exactly once and in publish order; a node never receives its own batches.
+ */
+public interface ClusterBus {
+
+    void publish(ClusterBatch batch);
+
+    void subscribe(Consumer<ClusterBatch> listener);
+}
@@ -0,0 +1,192 @@
+package com.example.demo.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends to the local broker and relays the same message to the other nodes of the cluster, so subscribers of
+ * {@code /topic/**} and user queues receive it whichever node they are connected to. Each payload is serialized
+ * once and shipped once per node; messages sent within one coalescing window are grouped per destination into a
+ * single {@link ClusterBatch}. Without a {@link ClusterBus} this only sends locally.
+ */
+@Component
+public class ClusterMessagingTemplate {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterMessagingTemplate.class);
+
+    private static final String USER_DESTINATION_PREFIX = "/user/";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ObjectMapper objectMapper;
+    private final ClusterBus clusterBus;
+
+    @Value("${chat.cluster.node-id:}")
+    private String nodeId;
+
+    @Value("${chat.cluster.coalesce-window-ms:5}")
+    private long coalesceWindowMs;
+
+    @Value("${chat.cluster.max-batch-messages:1000}")
+    private int maxBatchMessages;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Held from taking a batch until it is published, so batches leave this node in order.
+    private final ReentrantLock publishLock = new ReentrantLock();
+    private Map<FrameKey, List<byte[]>> pending = new LinkedHashMap<>();
+    private int pendingCount;
+    private ScheduledExecutorService flushScheduler;
+
+    public ClusterMessagingTemplate(SimpMessagingTemplate messagingTemplate, ObjectMapper objectMapper,
+                                    @Autowired(required = false) ClusterBus clusterBus) {
+        this.messagingTemplate = messagingTemplate;
+        this.objectMapper = objectMapper;
+        this.clusterBus = clusterBus;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (clusterBus == null) {
+            return;
+        }
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = UUID.randomUUID().toString();
+        }
+        clusterBus.subscribe(this::deliverLocally);
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("cluster-relay-"));
+        flushScheduler.scheduleWithFixedDelay(this::flush, coalesceWindowMs, coalesceWindowMs, TimeUnit.MILLISECONDS);
+        logger.info("Joined chat cluster as node {}", nodeId);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flushScheduler != null) {
+            flushScheduler.shutdown();
+            flush();
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Sends to subscribers of {@code destination} on this node and on every other node.
+     */
+    public void convertAndSend(String destination, Object payload) {
+        messagingTemplate.convertAndSend(destination, payload);
+        relay(destination, payload);
+    }
+
+    /**
+     * Sends to the sessions of {@code user} on this node and on every other node.
+     */
+    public void convertAndSendToUser(String user, String destination, Object payload) {
+        messagingTemplate.convertAndSendToUser(user, destination, payload);
+        enqueue(new FrameKey(destination, user), payload);
+    }
+
+    /**
+     * Sends only to the other nodes, for messages the local broker already got, such as {@code @SendTo} results.
+     */
+    public void relay(String destination, Object payload) {
+        enqueue(new FrameKey(destination, null), payload);
+    }
+
+    private void enqueue(FrameKey key, Object payload) {
+        if (clusterBus == null) {
+            return;
+        }
+        byte[] serialized;
+        try {
+            serialized = objectMapper.writeValueAsBytes(payload);
+        } catch (JsonProcessingException e) {
+            logger.error("Cannot relay message for {} to the cluster", key.destination(), e);
+            return;
+        }
+        boolean full;
+        lock.lock();
+        try {
+            pending.computeIfAbsent(key, k -> new ArrayList<>()).add(serialized);
+            full = ++pendingCount >= maxBatchMessages;
+        } finally {
+            lock.unlock();
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        publishLock.lock();
+        try {
+            Map<FrameKey, List<byte[]>> frames;
+            lock.lock();
+            try {
+                if (pendingCount == 0) {
+                    return;
+                }
+                frames = pending;
+                pending = new LinkedHashMap<>();
+                pendingCount = 0;
+            } finally {
+                lock.unlock();
+            }
+            List<ClusterBatch.ClusterFrame> batchFrames = new ArrayList<>(frames.size());
+            frames.forEach((key, payloads) ->
+                    batchFrames.add(new ClusterBatch.ClusterFrame(key.destination(), key.user(), payloads)));
+            clusterBus.publish(new ClusterBatch(nodeId, batchFrames));
+        } catch (RuntimeException e) {
+            logger.error("Failed to publish to the cluster", e);
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    private void deliverLocally(ClusterBatch batch) {
+        if (Objects.equals(batch.originNodeId(), nodeId)) {
+            return;
+        }
+        for (ClusterBatch.ClusterFrame frame : batch.frames()) {
+            String destination = frame.user() == null
+                    ? frame.destination()
+                    : USER_DESTINATION_PREFIX + frame.user() + frame.destination();
+            for (byte[] payload : frame.payloads()) {
+                messagingTemplate.send(destination, jsonMessage(payload));
+            }
+        }
+    }
+
+    private static Message<byte[]> jsonMessage(byte[] payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    private record FrameKey(String destination, String user) {
+    }
+}
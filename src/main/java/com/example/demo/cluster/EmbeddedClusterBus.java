@@ -0,0 +1,75 @@
+package com.example.demo.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * In-JVM cluster transport. Every application context in the same JVM that uses the same cluster name joins the
+ * same cluster, which lets several nodes run side by side in one process for tests and local development.
+ * Each member delivers incoming batches on its own single thread, so batches from one origin stay in order.
+ */
+public class EmbeddedClusterBus implements ClusterBus, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedClusterBus.class);
+
+    private static final Map<String, List<EmbeddedClusterBus>> CLUSTERS = new ConcurrentHashMap<>();
+
+    private final String clusterName;
+    private final List<Consumer<ClusterBatch>> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService deliveryExecutor;
+
+    public EmbeddedClusterBus(String clusterName) {
+        this.clusterName = clusterName;
+        this.deliveryExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("cluster-" + clusterName + "-"));
+        CLUSTERS.compute(clusterName, (name, members) -> {
+            List<EmbeddedClusterBus> joined = members != null ? members : new CopyOnWriteArrayList<>();
+            joined.add(this);
+            return joined;
+        });
+    }
+
+    @Override
+    public void publish(ClusterBatch batch) {
+        for (EmbeddedClusterBus member : CLUSTERS.getOrDefault(clusterName, List.of())) {
+            if (member != this) {
+                member.deliver(batch);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterBatch> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void destroy() {
+        CLUSTERS.computeIfPresent(clusterName, (name, members) -> {
+            members.remove(this);
+            return members.isEmpty() ? null : members;
+        });
+        deliveryExecutor.shutdown();
+    }
+
+    private void deliver(ClusterBatch batch) {
+        deliveryExecutor.execute(() -> {
+            for (Consumer<ClusterBatch> listener : listeners) {
+                try {
+                    listener.accept(batch);
+                } catch (RuntimeException e) {
+                    logger.error("Cluster listener failed for batch from {}", batch.originNodeId(), e);
+                }
+            }
+        });
+    }
+}
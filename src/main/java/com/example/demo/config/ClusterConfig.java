@@ -0,0 +1,22 @@
+package com.example.demo.config;
+
+import com.example.demo.cluster.ClusterBus;
+import com.example.demo.cluster.EmbeddedClusterBus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(name = "chat.cluster.enabled", havingValue = "true")
+public class ClusterConfig {
+
+    @Bean
+    public ClusterBus clusterBus(@Value("${chat.cluster.transport:embedded}") String transport,
+                                 @Value("${chat.cluster.name:chat}") String clusterName) {
+        if ("embedded".equals(transport)) {
+            return new EmbeddedClusterBus(clusterName);
+        }
+        throw new IllegalStateException("Unknown chat.cluster.transport: " + transport);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.demo.config;
+
+import com.example.demo.websocket.CompactMessageCodec;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+
+/**
+ * Lets STOMP clients negotiate the {@link CompactMessageCodec} encoding in their CONNECT frame; chat messages to
+ * those sessions are re-encoded on the client outbound channel, in the task that sends them, and the names they
+ * introduce are recorded once the task has handed them to the session.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.stomp.compact-encoding.enabled", havingValue = "true", matchIfMissing = true)
+public class CompactEncodingConfig implements WebSocketMessageBrokerConfigurer {
+
+    private final CompactMessageCodec codec;
+
+    public CompactEncodingConfig(CompactMessageCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+                if (accessor != null && accessor.getMessageType() == SimpMessageType.CONNECT) {
+                    codec.negotiate(accessor);
+                }
+                return message;
+            }
+        });
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(new ExecutorChannelInterceptor() {
+            @Override
+            public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+                return codec.encodeForSession(message);
+            }
+
+            @Override
+            public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler,
+                                            Exception ex) {
+                codec.afterSend(message, ex);
+            }
+        });
+    }
+}
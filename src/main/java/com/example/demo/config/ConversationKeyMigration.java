@@ -0,0 +1,55 @@
+package com.example.demo.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Fills {@code chat_messages.conversation_key} for messages stored before the column existed, so conversation
+ * queries, which only look at the key, keep finding them. Runs once all beans are created and before the web
+ * server and message broker start; does nothing when every message already has its key.
+ * <p>
+ * Works through the ids in ranges of {@value #BATCH_SIZE}, each updated in its own statement, to keep locks short on
+ * large tables. The key expression must match {@link com.example.demo.model.ChatMessage#conversationKey}.
+ */
+@Component
+public class ConversationKeyMigration implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationKeyMigration.class);
+
+    private static final int BATCH_SIZE = 10_000;
+
+    private static final String MISSING = "conversation_key IS NULL AND receiver_id IS NOT NULL";
+
+    private static final String RANGE_SQL = "SELECT MIN(id) AS first_id, MAX(id) AS last_id FROM chat_messages WHERE "
+            + MISSING;
+
+    private static final String UPDATE_SQL = "UPDATE chat_messages SET conversation_key = "
+            + "CONCAT(LEAST(sender_id, receiver_id), ':', GREATEST(sender_id, receiver_id)) "
+            + "WHERE id >= ? AND id < ? AND " + MISSING;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ConversationKeyMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        Map<String, Object> range = jdbcTemplate.queryForMap(RANGE_SQL);
+        if (range.get("first_id") == null) {
+            return;
+        }
+        long firstId = ((Number) range.get("first_id")).longValue();
+        long lastId = ((Number) range.get("last_id")).longValue();
+        long updated = 0;
+        for (long from = firstId; from <= lastId; from += BATCH_SIZE) {
+            updated += jdbcTemplate.update(UPDATE_SQL, from, from + BATCH_SIZE);
+        }
+        logger.info("Set the conversation key of {} stored messages", updated);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.demo.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Marks direct rooms created before rooms recorded their user pair, so direct room lookups, which only look at the
+ * pair, keep finding them. A legacy direct room is one named like {@code ChatService#getOrCreateDirectChatRoom}
+ * names them, with exactly two participants; when a pair has several, the oldest becomes its direct room and the
+ * others stay group rooms. Runs once all beans are created and before the web server starts.
+ */
+@Component
+public class DirectRoomMigration implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectRoomMigration.class);
+
+    private static final String CANDIDATES_SQL = "SELECT r.id, "
+            + "MIN(p.user_id) AS user_a_id, MAX(p.user_id) AS user_b_id FROM chat_rooms r JOIN chat_room_participants p ON p.chat_room_id = r.id "
+            + "WHERE r.direct_user_a_id IS NULL AND r.name LIKE 'Direct: %' "
+            + "GROUP BY r.id HAVING COUNT(*) = 2 ORDER BY r.id";
+
+    private static final String PAIRS_SQL = "SELECT direct_user_a_id, direct_user_b_id FROM chat_rooms "
+            + "WHERE direct_user_a_id IS NOT NULL";
+
+    private static final String UPDATE_SQL = "UPDATE chat_rooms SET direct_user_a_id = ?, direct_user_b_id = ? "
+            + "WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DirectRoomMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        List<long[]> candidates = jdbcTemplate.query(CANDIDATES_SQL,
+                (rs, rowNum) -> new long[]{rs.getLong("id"), rs.getLong("user_a_id"), rs.getLong("user_b_id")});
+        if (candidates.isEmpty()) {
+            return;
+        }
+        Set<List<Long>> pairs = new HashSet<>(jdbcTemplate.query(PAIRS_SQL,
+                (rs, rowNum) -> List.of(rs.getLong(1), rs.getLong(2))));
+        List<Object[]> updates = new ArrayList<>();
+        for (long[] candidate : candidates) {
+            if (pairs.add(List.of(candidate[1], candidate[2]))) {
+                updates.add(new Object[]{candidate[1], candidate[2], candidate[0]});
+            }
+        }
+        jdbcTemplate.batchUpdate(UPDATE_SQL, updates);
+        logger.info("Marked {} existing chat rooms as direct rooms", updates.size());
+    }
+}
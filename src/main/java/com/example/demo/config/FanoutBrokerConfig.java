@@ -0,0 +1,68 @@
+package com.example.demo.config;
+
+import com.example.demo.websocket.BoundedOutboundSession;
+import com.example.demo.websocket.BoundedOutboundSessionDecoratorFactory;
+import com.example.demo.websocket.DestinationPartitionedTaskExecutor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+/**
+ * Broker tuning for high fan-out topics, enabled with {@code chat.broker.fanout.enabled=true}. Broker work is
+ * partitioned by destination, outbound writes are asynchronous, and every native WebSocket session gets a bounded
+ * outbound buffer with slow-consumer eviction.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.broker.fanout.enabled", havingValue = "true")
+public class FanoutBrokerConfig implements WebSocketMessageBrokerConfigurer {
+
+    @Value("${chat.broker.fanout.partitions:0}")
+    private int partitions;
+
+    @Value("${chat.broker.fanout.outbound-threads:0}")
+    private int outboundThreads;
+
+    @Value("${chat.broker.fanout.session-buffer-messages:1000}")
+    private int sessionBufferMessages;
+
+    @Value("${chat.broker.fanout.session-buffer-bytes:524288}")
+    private int sessionBufferBytes;
+
+    @Value("${chat.broker.fanout.send-time-limit-ms:10000}")
+    private long sendTimeLimitMs;
+
+    @Value("${chat.broker.fanout.overflow-policy:DROP}")
+    private BoundedOutboundSession.OverflowPolicy overflowPolicy;
+
+    @Bean
+    public BoundedOutboundSessionDecoratorFactory boundedOutboundSessionDecoratorFactory() {
+        return new BoundedOutboundSessionDecoratorFactory(
+                sessionBufferMessages, sessionBufferBytes, sendTimeLimitMs, overflowPolicy);
+    }
+
+    @Override
+    public void configureMessageBroker(MessageBrokerRegistry config) {
+        config.configureBrokerChannel().taskExecutor(new DestinationPartitionedTaskExecutor(orCores(partitions)));
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Sends never block on a socket any more, so the pool only needs enough threads to keep the CPUs busy.
+        int threads = orCores(outboundThreads);
+        registration.taskExecutor().corePoolSize(threads).maxPoolSize(threads);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.addDecoratorFactory(boundedOutboundSessionDecoratorFactory());
+    }
+
+    private static int orCores(int configured) {
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.demo.config;
+
+import com.example.demo.websocket.MessageReplayer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+
+/**
+ * Lets STOMP clients resume room and direct message subscriptions after a reconnect; see {@link MessageReplayer}.
+ * The replay is sent from the client inbound channel once the SUBSCRIBE frame has been handled, so every message
+ * published after the replay was read reaches the new subscription live.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.stomp.resume.enabled", havingValue = "true", matchIfMissing = true)
+public class MessageResumeConfig implements WebSocketMessageBrokerConfigurer {
+
+    private final MessageReplayer replayer;
+
+    public MessageResumeConfig(MessageReplayer replayer) {
+        this.replayer = replayer;
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(new ExecutorChannelInterceptor() {
+            @Override
+            public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler,
+                                            Exception ex) {
+                if (ex == null) {
+                    replayer.handled(message, handler);
+                }
+            }
+        });
+    }
+}
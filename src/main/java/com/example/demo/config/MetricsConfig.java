@@ -0,0 +1,149 @@
+package com.example.demo.config;
+
+import com.example.demo.archive.MessageTieringJob;
+import com.example.demo.search.MessageSearchIndex;
+import com.example.demo.service.ChatMessageWriteBehindQueue;
+import com.example.demo.service.DirectRoomCache;
+import com.example.demo.service.PresenceRegistry;
+import com.example.demo.service.ReadMarkerService;
+import com.example.demo.service.RecentMessageCache;
+import com.example.demo.service.UserSnapshotCache;
+import com.example.demo.websocket.BoundedOutboundSessionDecoratorFactory;
+import com.example.demo.websocket.CoalescingSessionDecoratorFactory;
+import com.example.demo.websocket.OfflineMailbox;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Application metrics beyond what Spring Boot instruments on its own: {@code @Timed} support for services and
+ * message handlers, and gauges and counters for the in-memory buffers and caches on the messaging path.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+
+    @Bean
+    public MeterBinder chatMeters(PresenceRegistry presenceRegistry, UserSnapshotCache userSnapshotCache,
+                                  RecentMessageCache recentMessageCache, ReadMarkerService readMarkerService,
+                                  DirectRoomCache directRoomCache,
+                                  ObjectProvider<ChatMessageWriteBehindQueue> writeBehindQueue,
+                                  ObjectProvider<MessageSearchIndex> searchIndex,
+                                  ObjectProvider<MessageTieringJob> tieringJob,
+                                  ObjectProvider<BoundedOutboundSessionDecoratorFactory> outboundSessions,
+                                  ObjectProvider<CoalescingSessionDecoratorFactory> coalescingSessions,
+                                  ObjectProvider<OfflineMailbox> offlineMailbox) {
+        return registry -> {
+            Gauge.builder("chat.presence.online.users", presenceRegistry, PresenceRegistry::getOnlineUserCount)
+                    .description("Users with at least one open session")
+                    .register(registry);
+
+            Gauge.builder("chat.unread.loaded.users", readMarkerService, ReadMarkerService::getLoadedUserCount)
+                    .description("Users whose unread counters are held in memory")
+                    .register(registry);
+            Gauge.builder("chat.read.markers.pending", readMarkerService, ReadMarkerService::getPendingMarkerCount)
+                    .description("Read marker moves not yet written to the database")
+                    .register(registry);
+
+            FunctionCounter.builder("chat.user.cache.requests", userSnapshotCache, c -> c.getStats().hits())
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("chat.user.cache.requests", userSnapshotCache, c -> c.getStats().misses())
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("chat.user.cache.evictions", userSnapshotCache, c -> c.getStats().evictions())
+                    .register(registry);
+            Gauge.builder("chat.user.cache.size", userSnapshotCache, c -> c.getStats().size())
+                    .register(registry);
+
+            FunctionCounter.builder("chat.direct.room.cache.requests", directRoomCache, c -> c.getStats().hits())
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("chat.direct.room.cache.requests", directRoomCache, c -> c.getStats().misses())
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("chat.direct.room.cache.evictions", directRoomCache, c -> c.getStats().evictions())
+                    .register(registry);
+            Gauge.builder("chat.direct.room.cache.size", directRoomCache, c -> c.getStats().size())
+                    .register(registry);
+
+            FunctionCounter.builder("chat.history.cache.requests", recentMessageCache, c -> c.getStats().hits())
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("chat.history.cache.requests", recentMessageCache, c -> c.getStats().misses())
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("chat.history.cache.evictions", recentMessageCache, c -> c.getStats().evictions())
+                    .register(registry);
+            Gauge.builder("chat.history.cache.conversations", recentMessageCache, c -> c.getStats().conversations())
+                    .register(registry);
+            Gauge.builder("chat.history.cache.bytes", recentMessageCache, c -> c.getStats().bytes())
+                    .description("Estimated size of the cached messages")
+                    .baseUnit("bytes")
+                    .register(registry);
+
+            writeBehindQueue.ifAvailable(queue ->
+                    Gauge.builder("chat.persistence.write.behind.pending", queue, ChatMessageWriteBehindQueue::getPendingCount)
+                            .description("Messages accepted but not yet inserted")
+                            .register(registry));
+
+            searchIndex.ifAvailable(index ->
+                    Gauge.builder("chat.search.indexed.messages", index, MessageSearchIndex::getIndexedCount)
+                            .description("Messages in the full-text search index")
+                            .register(registry));
+
+            tieringJob.ifAvailable(job ->
+                    FunctionCounter.builder("chat.archive.messages.moved", job, MessageTieringJob::getMovedCount)
+                            .description("Messages moved from the database to the archive")
+                            .register(registry));
+
+            outboundSessions.ifAvailable(factory -> {
+                Gauge.builder("chat.websocket.outbound.buffered", factory, BoundedOutboundSessionDecoratorFactory::getBufferedBytes)
+                        .baseUnit("bytes")
+                        .register(registry);
+                FunctionCounter.builder("chat.websocket.outbound.dropped", factory, f -> f.getStats().getDroppedMessages())
+                        .register(registry);
+                FunctionCounter.builder("chat.websocket.outbound.evicted", factory, f -> f.getStats().getEvictedSessions())
+                        .register(registry);
+            });
+
+            offlineMailbox.ifAvailable(mailbox -> {
+                FunctionCounter.builder("chat.mailbox.messages", mailbox, m -> m.getStats().held())
+                        .description("Direct messages held for users who were not connected")
+                        .tag("result", "held")
+                        .register(registry);
+                FunctionCounter.builder("chat.mailbox.messages", mailbox, m -> m.getStats().delivered())
+                        .tag("result", "delivered")
+                        .register(registry);
+                FunctionCounter.builder("chat.mailbox.messages", mailbox, m -> m.getStats().dropped())
+                        .tag("result", "dropped")
+                        .register(registry);
+                Gauge.builder("chat.mailbox.users", mailbox, m -> m.getStats().mailboxes())
+                        .register(registry);
+                Gauge.builder("chat.mailbox.memory.messages", mailbox, m -> m.getStats().memoryMessages())
+                        .register(registry);
+                Gauge.builder("chat.mailbox.spilled", mailbox, m -> m.getStats().spilledBytes())
+                        .baseUnit("bytes")
+                        .register(registry);
+            });
+
+            coalescingSessions.ifAvailable(factory -> {
+                FunctionCounter.builder("chat.websocket.coalesced.frames", factory, f -> f.getStats().getQueuedFrames())
+                        .description("STOMP frames queued for coalescing")
+                        .register(registry);
+                FunctionCounter.builder("chat.websocket.coalesced.writes", factory, f -> f.getStats().getWrittenBatches())
+                        .description("WebSocket messages written for coalesced frames")
+                        .register(registry);
+            });
+        };
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.demo.config;
+
+import com.example.demo.websocket.OfflineMailbox;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+
+/**
+ * Keeps direct messages for users who are not connected; see {@link OfflineMailbox}. Like the resume replay, the
+ * mailbox learns about user queue subscriptions once the user destination handler has registered them.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.mailbox.enabled", havingValue = "true", matchIfMissing = true)
+public class OfflineMailboxConfig implements WebSocketMessageBrokerConfigurer {
+
+    private final OfflineMailbox mailbox;
+
+    public OfflineMailboxConfig(OfflineMailbox mailbox) {
+        this.mailbox = mailbox;
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(new ExecutorChannelInterceptor() {
+            @Override
+            public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler,
+                                            Exception ex) {
+                if (ex == null) {
+                    mailbox.handled(message, handler);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.demo.config;
+
+import com.example.demo.websocket.CoalescingSessionDecoratorFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+/**
+ * Outbound frame coalescing, enabled with {@code chat.websocket.coalescing.enabled=true}. Frames for one session
+ * are held for up to {@code window-ms} and written together, up to {@code max-bytes} per write. Sessions whose
+ * write takes longer than {@code send-time-limit-ms} or whose unwritten frames exceed {@code buffer-bytes} are closed.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.websocket.coalescing.enabled", havingValue = "true")
+// Registered before the fan-out decorator so the bounded outbound buffer sits under the coalescing session and
+// still sees the native WebSocket session.
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class OutboundCoalescingConfig implements WebSocketMessageBrokerConfigurer {
+
+    @Value("${chat.websocket.coalescing.window-ms:5}")
+    private long windowMs;
+
+    @Value("${chat.websocket.coalescing.max-bytes:4096}")
+    private int maxBytes;
+
+    @Value("${chat.websocket.coalescing.flush-threads:0}")
+    private int flushThreads;
+
+    @Value("${chat.websocket.coalescing.send-time-limit-ms:10000}")
+    private long sendTimeLimitMs;
+
+    @Value("${chat.websocket.coalescing.buffer-bytes:524288}")
+    private int bufferBytes;
+
+    @Bean
+    public CoalescingSessionDecoratorFactory coalescingSessionDecoratorFactory() {
+        int threads = flushThreads > 0 ? flushThreads : Runtime.getRuntime().availableProcessors();
+        return new CoalescingSessionDecoratorFactory(windowMs, maxBytes, threads, sendTimeLimitMs, bufferBytes);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.addDecoratorFactory(coalescingSessionDecoratorFactory());
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.demo.config;
+
+import com.example.demo.websocket.SendRateLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+
+/**
+ * Rate limits STOMP SEND frames per session and per user; see {@link SendRateLimiter}. Limits are set per
+ * destination, and destinations without a limit are not limited.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+public class RateLimitConfig implements WebSocketMessageBrokerConfigurer {
+
+    private final SendRateLimiter sendRateLimiter;
+
+    public RateLimitConfig(
+            @Value("${chat.rate-limit.session:/app/chat.sendMessage=10/20,/app/chat.sendToRoom=10/20}") String sessionLimits,
+            @Value("${chat.rate-limit.user:/app/chat.sendMessage=20/40,/app/chat.sendToRoom=20/40}") String userLimits,
+            @Qualifier("clientOutboundChannel") ObjectProvider<MessageChannel> clientOutboundChannel,
+            MeterRegistry meterRegistry) {
+        this.sendRateLimiter = new SendRateLimiter(SendRateLimiter.parseLimits(sessionLimits),
+                SendRateLimiter.parseLimits(userLimits), clientOutboundChannel, meterRegistry);
+    }
+
+    // A bean so its idle bucket sweep is scheduled.
+    @Bean
+    public SendRateLimiter sendRateLimiter() {
+        return sendRateLimiter;
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(sendRateLimiter);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.demo.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fills {@code read_markers.last_read_seq} for markers stored before the column existed, from the sequence number of
+ * the message they point at, since unread counts only compare sequence numbers. Runs once all beans are created and
+ * before the web server and message broker start; does nothing when every marker already has its number. Markers
+ * whose message is gone keep a null number and count the whole conversation as unread.
+ */
+@Component
+public class ReadMarkerSeqMigration implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadMarkerSeqMigration.class);
+
+    private static final String UPDATE_SQL = "UPDATE read_markers rm SET last_read_seq = "
+            + "(SELECT m.seq FROM chat_messages m WHERE m.id = rm.last_read_message_id) "
+            + "WHERE rm.last_read_seq IS NULL AND EXISTS "
+            + "(SELECT 1 FROM chat_messages m WHERE m.id = rm.last_read_message_id AND m.seq IS NOT NULL)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ReadMarkerSeqMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        int updated = jdbcTemplate.update(UPDATE_SQL);
+        if (updated > 0) {
+            logger.info("Set the sequence number of {} read markers", updated);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.demo.config;
+
+import com.example.demo.websocket.SharedFrameStompEncoder;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+/**
+ * Switches the STOMP endpoint to {@link SharedFrameStompEncoder}, so a broadcast is encoded once instead of once
+ * per subscriber. The STOMP handler is registered with the WebSocket handler after it is created and Spring has
+ * no configurer hook for its encoder, so it is set once all singletons exist.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.broker.shared-frames.enabled", havingValue = "true", matchIfMissing = true)
+public class SharedFrameEncodingConfig {
+
+    @Bean
+    public SmartInitializingSingleton sharedFrameEncoderInstaller(
+            @Qualifier("subProtocolWebSocketHandler") WebSocketHandler webSocketHandler) {
+        return () -> {
+            if (WebSocketHandlerDecorator.unwrap(webSocketHandler) instanceof SubProtocolWebSocketHandler handler) {
+                SharedFrameStompEncoder encoder = new SharedFrameStompEncoder();
+                handler.getProtocolHandlers().stream()
+                        .filter(StompSubProtocolHandler.class::isInstance)
+                        .forEach(protocolHandler -> ((StompSubProtocolHandler) protocolHandler).setEncoder(encoder));
+            }
+        };
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.demo.config;
+
+import com.example.demo.service.TokenService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Authenticates a request from the access token in its {@code Authorization: Bearer} header or, since browsers
+ * cannot set headers on WebSocket and SockJS requests, its {@code access_token} parameter on {@code /ws}. The
+ * authentication is built from the token's claims alone and its principal is the user's email, like a form login.
+ * Requests without a valid token stay anonymous.
+ */
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+
+    public static final String TOKEN_PARAMETER = "access_token";
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final TokenService tokenService;
+
+    public TokenAuthenticationFilter(TokenService tokenService) {
+        this.tokenService = tokenService;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String token = token(request);
+        if (token != null) {
+            tokenService.verify(token).ifPresent(claims -> {
+                UsernamePasswordAuthenticationToken authentication = UsernamePasswordAuthenticationToken.authenticated(
+                        claims.email(), null, claims.roles().stream().map(SimpleGrantedAuthority::new).toList());
+                authentication.setDetails(claims);
+                SecurityContext context = SecurityContextHolder.createEmptyContext();
+                context.setAuthentication(authentication);
+                SecurityContextHolder.setContext(context);
+            });
+        }
+        chain.doFilter(request, response);
+    }
+
+    private static String token(HttpServletRequest request) {
+        String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (authorization != null && authorization.startsWith(BEARER_PREFIX)) {
+            return authorization.substring(BEARER_PREFIX.length()).trim();
+        }
+        if (request.getServletPath().startsWith("/ws")) {
+            return request.getParameter(TOKEN_PARAMETER);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.demo.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+
+/**
+ * Runs client inbound and outbound channel tasks on virtual threads when {@code spring.threads.virtual.enabled=true};
+ * Spring Boot moves Tomcat request handling to virtual threads with the same property. Each channel keeps a
+ * concurrency limit so a burst of blocking JPA calls queues here instead of pinning every carrier thread inside
+ * JDBC driver code that still synchronizes, or piling up on the connection pool. Virtual threads need Java 21;
+ * on an older runtime the pooled executors are kept and a warning is logged.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig implements WebSocketMessageBrokerConfigurer {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+    private final boolean supported = JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE);
+
+    @Value("${chat.threads.virtual.inbound-concurrency:256}")
+    private int inboundConcurrency;
+
+    @Value("${chat.threads.virtual.outbound-concurrency:256}")
+    private int outboundConcurrency;
+
+    @Value("${chat.broker.fanout.enabled:false}")
+    private boolean fanoutEnabled;
+
+    public VirtualThreadConfig() {
+        if (!supported) {
+            logger.warn("spring.threads.virtual.enabled needs Java 21 or later, running on Java {}; "
+                    + "STOMP channels and Tomcat keep their thread pools", JavaVersion.getJavaVersion());
+        }
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        if (supported) {
+            registration.taskExecutor(virtualThreadExecutor("ws-inbound-", inboundConcurrency));
+        }
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // The fan-out mode writes asynchronously, so outbound tasks never block and its sized pool is kept.
+        if (supported && !fanoutEnabled) {
+            registration.taskExecutor(virtualThreadExecutor("ws-outbound-", outboundConcurrency));
+        }
+    }
+
+    // A pool of at most concurrencyLimit virtual workers; idle workers end after the keep-alive.
+    static ThreadPoolTaskExecutor virtualThreadExecutor(String threadNamePrefix, int concurrencyLimit) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadFactory(new VirtualThreadTaskExecutor(threadNamePrefix).getVirtualThreadFactory());
+        executor.setCorePoolSize(concurrencyLimit);
+        executor.setMaxPoolSize(concurrencyLimit);
+        executor.setKeepAliveSeconds(60);
+        executor.setAllowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.demo.config;
+
+import com.example.demo.websocket.ChannelMetricsInterceptor;
+import com.example.demo.websocket.DestinationPartitionedTaskExecutor;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.util.concurrent.Executor;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer metrics for the STOMP pipeline: open sessions per transport, queued tasks and task handling time
+ * for the client inbound, client outbound and broker channels.
+ */
+@Configuration
+public class WebSocketMetricsConfig implements WebSocketMessageBrokerConfigurer {
+
+    private final MeterRegistry meterRegistry;
+
+    public WebSocketMetricsConfig(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(new ChannelMetricsInterceptor(meterRegistry, "inbound"));
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(new ChannelMetricsInterceptor(meterRegistry, "outbound"));
+    }
+
+    @Override
+    public void configureMessageBroker(MessageBrokerRegistry registry) {
+        registry.configureBrokerChannel().interceptors(new ChannelMetricsInterceptor(meterRegistry, "broker"));
+    }
+
+    @Bean
+    public MeterBinder webSocketMeters(@Qualifier("subProtocolWebSocketHandler") WebSocketHandler webSocketHandler,
+                                       @Qualifier("clientInboundChannel") AbstractSubscribableChannel inbound,
+                                       @Qualifier("clientOutboundChannel") AbstractSubscribableChannel outbound,
+                                       @Qualifier("brokerChannel") AbstractSubscribableChannel broker) {
+        return registry -> {
+            // Transport decorators such as the bounded outbound buffer wrap the handler.
+            if (WebSocketHandlerDecorator.unwrap(webSocketHandler) instanceof SubProtocolWebSocketHandler handler) {
+                SubProtocolWebSocketHandler.Stats stats = handler.getStats();
+                sessionGauge(registry, stats, "websocket", SubProtocolWebSocketHandler.Stats::getWebSocketSessions);
+                sessionGauge(registry, stats, "http-streaming", SubProtocolWebSocketHandler.Stats::getHttpStreamingSessions);
+                sessionGauge(registry, stats, "http-polling", SubProtocolWebSocketHandler.Stats::getHttpPollingSessions);
+            }
+            queueGauge(registry, "inbound", inbound);
+            queueGauge(registry, "outbound", outbound);
+            queueGauge(registry, "broker", broker);
+        };
+    }
+
+    private static void sessionGauge(MeterRegistry registry, SubProtocolWebSocketHandler.Stats stats, String transport,
+                                     ToDoubleFunction<SubProtocolWebSocketHandler.Stats> count) {
+        Gauge.builder("chat.websocket.sessions", stats, count)
+                .description("Open WebSocket and SockJS sessions")
+                .tag("transport", transport)
+                .register(registry);
+    }
+
+    // Synchronous channels have no executor and therefore no queue.
+    private static void queueGauge(MeterRegistry registry, String channel, AbstractSubscribableChannel subscribable) {
+        Executor executor = subscribable instanceof ExecutorSubscribableChannel executorChannel
+                ? executorChannel.getExecutor() : null;
+        if (executor instanceof DestinationPartitionedTaskExecutor partitioned) {
+            Gauge.builder("chat.channel.queued", partitioned, DestinationPartitionedTaskExecutor::getQueuedTaskCount)
+                    .description("Messages waiting for a channel thread")
+                    .tag("channel", channel)
+                    .register(registry);
+        } else if (executor instanceof ThreadPoolTaskExecutor pool) {
+            Gauge.builder("chat.channel.queued", pool, p -> p.getThreadPoolExecutor().getQueue().size())
+                    .description("Messages waiting for a channel thread")
+                    .tag("channel", channel)
+                    .register(registry);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.example.demo.controller;
 
+import com.example.demo.archive.MessageTieringJob;
 import com.example.demo.model.Role;
 import com.example.demo.model.User;
+import com.example.demo.search.MessageSearchIndex;
 import com.example.demo.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -19,6 +21,12 @@ public class AdminApiController {
     @Autowired
     private UserService userService;
 
+    @Autowired(required = false)
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired(required = false)
+    private MessageTieringJob messageTieringJob;
+
     // Admin User Management API
     @PostMapping("/users")
     public ResponseEntity<Map<String, Object>> createUser(
@@ -99,4 +107,38 @@ public class AdminApiController {
         }
         return ResponseEntity.ok(response);
     }
-}
\ No newline at end of file
+
+    // Message search index maintenance
+    @PostMapping("/search/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildSearchIndex() {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            if (messageSearchIndex == null) {
+                throw new IllegalStateException("Message search is disabled");
+            }
+            response.put("success", true);
+            response.put("indexed", messageSearchIndex.rebuild());
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    // Message archive maintenance
+    @PostMapping("/archive/run")
+    public ResponseEntity<Map<String, Object>> archiveOldMessages() {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            if (messageTieringJob == null) {
+                throw new IllegalStateException("Message archiving is disabled");
+            }
+            response.put("success", true);
+            response.put("archived", messageTieringJob.archiveOldMessages());
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+        }
+        return ResponseEntity.ok(response);
+    }
+}
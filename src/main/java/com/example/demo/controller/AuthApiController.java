@@ -0,0 +1,83 @@
+package com.example.demo.controller;
+
+import com.example.demo.model.User;
+import com.example.demo.service.TokenService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/auth")
+@Tag(name = "Auth API", description = "Signed access tokens for the API and the WebSocket endpoint")
+@ConditionalOnProperty(name = "chat.auth.token.enabled", havingValue = "true")
+public class AuthApiController {
+
+    private final AuthenticationManager authenticationManager;
+    private final TokenService tokenService;
+
+    public AuthApiController(AuthenticationManager authenticationManager, TokenService tokenService) {
+        this.authenticationManager = authenticationManager;
+        this.tokenService = tokenService;
+    }
+
+    @PostMapping("/token")
+    @Operation(summary = "Issue an access token", description = "Checks the user's credentials and issues a token to "
+            + "send as 'Authorization: Bearer <token>', or as the access_token parameter of /ws")
+    public ResponseEntity<Map<String, Object>> issueToken(@RequestParam String email, @RequestParam String password) {
+        Authentication authentication;
+        try {
+            authentication = authenticationManager.authenticate(
+                    UsernamePasswordAuthenticationToken.unauthenticated(email, password));
+        } catch (AuthenticationException e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        User user = (User) authentication.getPrincipal();
+        return ResponseEntity.ok(tokenResponse(tokenService.issue(user.getEmail(), user.getId(),
+                user.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList())));
+    }
+
+    @PostMapping("/token/refresh")
+    @Operation(summary = "Refresh an access token", description = "Issues a new token with the claims of the current "
+            + "one, which stays valid until it expires")
+    public ResponseEntity<Map<String, Object>> refreshToken(Authentication authentication) {
+        if (!(authentication.getDetails() instanceof TokenService.Claims claims)) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(tokenResponse(tokenService.issue(claims.email(), claims.userId(), claims.roles())));
+    }
+
+    @PostMapping("/token/revoke")
+    @Operation(summary = "Revoke access tokens", description = "Revokes the current token, or with all=true every "
+            + "token issued to its user so far")
+    public ResponseEntity<Void> revokeToken(Authentication authentication,
+                                            @RequestParam(defaultValue = "false") boolean all) {
+        if (!(authentication.getDetails() instanceof TokenService.Claims claims)) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (all && claims.userId() != null) {
+            tokenService.revokeAll(claims.userId());
+        } else {
+            tokenService.revoke(claims);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    private Map<String, Object> tokenResponse(String token) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("token", token);
+        response.put("tokenType", "Bearer");
+        response.put("expiresIn", tokenService.getTtlSeconds());
+        return response;
+    }
+}
@@ -1,21 +1,30 @@
 package com.example.demo.controller;
 
 import com.example.demo.dto.ChatMessageDto;
+import com.example.demo.dto.ChatMessagePage;
+import com.example.demo.dto.MessageCursor;
+import com.example.demo.dto.MessageSearchPage;
+import com.example.demo.dto.RoomSummaryPage;
+import com.example.demo.dto.UnreadCounts;
 import com.example.demo.model.ChatMessage;
 import com.example.demo.model.ChatRoom;
+import com.example.demo.model.ReadMarker;
 import com.example.demo.model.User;
 import com.example.demo.service.ChatService;
+import com.example.demo.service.ReadMarkerService;
+import com.example.demo.service.RoomSummaryService;
 import com.example.demo.service.UserService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Optional;
 import java.util.stream.Collectors;
 
 @RestController
@@ -29,6 +38,12 @@ public class ChatController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private ReadMarkerService readMarkerService;
+
+    @Autowired
+    private RoomSummaryService roomSummaryService;
+
     @Autowired
     private com.example.demo.repository.ChatRoomRepository chatRoomRepository;
 
@@ -37,10 +52,10 @@ public class ChatController {
     public ResponseEntity<ChatMessageDto> sendMessage(
             @RequestBody ChatMessageDto messageDto) {
         try {
-            User sender = userService.findById(messageDto.getSenderId());
+            User sender = userService.getUserSnapshot(messageDto.getSenderId()).toReference();
             User receiver = null;
             if (messageDto.getReceiverId() != null) {
-                receiver = userService.findById(messageDto.getReceiverId());
+                receiver = userService.getUserSnapshot(messageDto.getReceiverId()).toReference();
             }
             
             ChatMessage chatMessage = chatService.sendMessage(
@@ -57,8 +72,10 @@ public class ChatController {
         }
     }
 
+    @Deprecated
     @GetMapping("/messages/conversation")
-    @Operation(summary = "Get conversation between users", description = "Retrieve all messages between two users")
+    @Operation(summary = "Get conversation between users", description = "Retrieve all messages between two users. "
+            + "Deprecated: use /messages/conversation/page", deprecated = true)
     public ResponseEntity<List<ChatMessageDto>> getConversation(
             @Parameter(description = "ID of the first user") @RequestParam Long user1Id,
             @Parameter(description = "ID of the second user") @RequestParam Long user2Id) {
@@ -73,8 +90,26 @@ public class ChatController {
         }
     }
 
+    @GetMapping("/messages/conversation/page")
+    @Operation(summary = "Get conversation page", description = "Retrieve a page of messages between two users, "
+            + "newest page first; pass nextCursor back as cursor to load older messages")
+    public ResponseEntity<ChatMessagePage> getConversationPage(
+            @Parameter(description = "ID of the first user") @RequestParam Long user1Id,
+            @Parameter(description = "ID of the second user") @RequestParam Long user2Id,
+            @Parameter(description = "Cursor returned by the previous page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Maximum number of messages") @RequestParam(defaultValue = "50") int size) {
+        try {
+            MessageCursor messageCursor = cursor == null ? null : MessageCursor.decode(cursor);
+            return ResponseEntity.ok(chatService.getConversationPage(user1Id, user2Id, messageCursor, size));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @Deprecated
     @GetMapping("/messages/room/{roomId}")
-    @Operation(summary = "Get chat room messages", description = "Retrieve all messages in a specific chat room")
+    @Operation(summary = "Get chat room messages", description = "Retrieve all messages in a specific chat room. "
+            + "Deprecated: use /messages/room/{roomId}/page", deprecated = true)
     public ResponseEntity<List<ChatMessageDto>> getChatRoomMessages(
             @Parameter(description = "ID of the chat room") @PathVariable Long roomId) {
         try {
@@ -88,6 +123,40 @@ public class ChatController {
         }
     }
 
+    @GetMapping("/messages/room/{roomId}/page")
+    @Operation(summary = "Get chat room messages page", description = "Retrieve a page of messages in a chat room, "
+            + "newest page first; pass nextCursor back as cursor to load older messages")
+    public ResponseEntity<ChatMessagePage> getChatRoomMessagesPage(
+            @Parameter(description = "ID of the chat room") @PathVariable Long roomId,
+            @Parameter(description = "Cursor returned by the previous page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Maximum number of messages") @RequestParam(defaultValue = "50") int size) {
+        try {
+            MessageCursor messageCursor = cursor == null ? null : MessageCursor.decode(cursor);
+            return ResponseEntity.ok(chatService.getChatRoomMessagesPage(roomId, messageCursor, size));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/search")
+    @Operation(summary = "Search messages", description = "Full-text search over the messages the current user can "
+            + "see, best match first; optionally limited to one chat room or to the conversation with peerId")
+    public ResponseEntity<MessageSearchPage> searchMessages(
+            @Parameter(description = "Search text; all terms must match, quote phrases, prefix with - to exclude")
+            @RequestParam String q,
+            @Parameter(description = "ID of a chat room to search in") @RequestParam(required = false) Long chatRoomId,
+            @Parameter(description = "ID of the other user of a direct conversation") @RequestParam(required = false) Long peerId,
+            @Parameter(description = "Page number, starting at 0") @RequestParam(defaultValue = "0") int page,
+            @Parameter(description = "Maximum number of messages") @RequestParam(defaultValue = "20") int size,
+            Authentication authentication) {
+        try {
+            Long userId = userService.getUserSnapshotByEmail(authentication.getName()).id();
+            return ResponseEntity.ok(chatService.searchMessages(userId, q, chatRoomId, peerId, page, size));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @PostMapping("/rooms")
     @Operation(summary = "Create a chat room", description = "Create a new chat room with participants")
     public ResponseEntity<ChatRoomDto> createChatRoom(
@@ -118,16 +187,13 @@ public class ChatController {
             User user1 = userService.findById(request.getUser1Id());
             User user2 = userService.findById(request.getUser2Id());
             
-            Optional<ChatRoom> existingRoom = chatService.findDirectChatRoom(
-                request.getUser1Id(), 
-                request.getUser2Id()
-            );
-            
-            if (existingRoom.isPresent()) {
-                return ResponseEntity.ok(convertChatRoomToDto(existingRoom.get()));
+            ChatRoom chatRoom;
+            try {
+                chatRoom = chatService.getOrCreateDirectChatRoom(user1, user2);
+            } catch (DataIntegrityViolationException e) {
+                // Another request created the pair's room first.
+                chatRoom = chatService.findDirectChatRoom(user1.getId(), user2.getId()).orElseThrow(() -> e);
             }
-            
-            ChatRoom chatRoom = chatService.createDirectChatRoom(user1, user2);
             ChatRoomDto responseDto = convertChatRoomToDto(chatRoom);
             return ResponseEntity.ok(responseDto);
         } catch (Exception e) {
@@ -169,8 +235,10 @@ public class ChatController {
         }
     }
 
+    @Deprecated
     @GetMapping("/rooms/user/{userId}")
-    @Operation(summary = "Get user chat rooms", description = "Retrieve all chat rooms for a specific user")
+    @Operation(summary = "Get user chat rooms", description = "Retrieve all chat rooms for a specific user. "
+            + "Deprecated: use /rooms/user/{userId}/page", deprecated = true)
     public ResponseEntity<List<ChatRoomDto>> getUserChatRooms(
             @Parameter(description = "ID of the user") @PathVariable Long userId) {
         try {
@@ -184,8 +252,26 @@ public class ChatController {
         }
     }
 
+    @GetMapping("/rooms/user/{userId}/page")
+    @Operation(summary = "Get user chat room page", description = "Retrieve a page of a user's chat rooms with their "
+            + "participants, last message and unread count, most recently active first; pass nextCursor back as "
+            + "cursor to load the next page")
+    public ResponseEntity<RoomSummaryPage> getUserChatRoomPage(
+            @Parameter(description = "ID of the user") @PathVariable Long userId,
+            @Parameter(description = "Cursor returned by the previous page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Maximum number of rooms") @RequestParam(defaultValue = "50") int size) {
+        try {
+            MessageCursor roomCursor = cursor == null ? null : MessageCursor.decode(cursor);
+            return ResponseEntity.ok(roomSummaryService.getRoomSummaries(userId, roomCursor, size));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @Deprecated
     @GetMapping("/messages/unread")
-    @Operation(summary = "Get unread message count", description = "Count unread messages from a sender")
+    @Operation(summary = "Get unread message count", description = "Count unread messages from a sender. "
+            + "Deprecated: use /unread/user/{userId}", deprecated = true)
     public ResponseEntity<Long> getUnreadMessageCount(
             @Parameter(description = "ID of the sender") @RequestParam Long senderId,
             @Parameter(description = "ID of the receiver") @RequestParam Long receiverId,
@@ -198,6 +284,37 @@ public class ChatController {
         }
     }
 
+    @GetMapping("/unread/user/{userId}")
+    @Operation(summary = "Get unread counts", description = "Retrieve the unread message count of every direct "
+            + "conversation and chat room of a user, counted from the user's read markers")
+    public ResponseEntity<UnreadCounts> getUnreadCounts(
+            @Parameter(description = "ID of the user") @PathVariable Long userId) {
+        try {
+            return ResponseEntity.ok(readMarkerService.getUnreadCounts(userId));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PostMapping("/read-markers")
+    @Operation(summary = "Mark messages read", description = "Move the user's read marker in a direct conversation "
+            + "(peerId) or chat room (chatRoomId) to a message; returns the messages still unread there")
+    public ResponseEntity<Long> markRead(@RequestBody ReadMarkerRequest request) {
+        try {
+            if ((request.getChatRoomId() == null) == (request.getPeerId() == null)) {
+                return ResponseEntity.badRequest().build();
+            }
+            long unread = request.getChatRoomId() != null
+                    ? readMarkerService.markRead(request.getUserId(), ReadMarker.ConversationType.ROOM,
+                            request.getChatRoomId(), request.getMessageId(), request.getSeq())
+                    : readMarkerService.markRead(request.getUserId(), ReadMarker.ConversationType.DIRECT,
+                            request.getPeerId(), request.getMessageId(), request.getSeq());
+            return ResponseEntity.ok(unread);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     private ChatMessageDto convertToDto(ChatMessage chatMessage) {
         ChatMessageDto dto = new ChatMessageDto();
         dto.setId(chatMessage.getId());
@@ -214,6 +331,8 @@ public class ChatController {
         if (chatMessage.getChatRoom() != null) {
             dto.setChatRoomId(chatMessage.getChatRoom().getId());
         }
+
+        dto.setSeq(chatMessage.getSeq());
         
         return dto;
     }
@@ -268,6 +387,26 @@ public class ChatController {
         public void setParticipantIds(List<Long> participantIds) { this.participantIds = participantIds; }
     }
 
+    public static class ReadMarkerRequest {
+        private Long userId;
+        private Long chatRoomId;
+        private Long peerId;
+        private Long messageId;
+        // The message's sequence number; looked up from messageId when missing.
+        private Long seq;
+
+        public Long getUserId() { return userId; }
+        public void setUserId(Long userId) { this.userId = userId; }
+        public Long getChatRoomId() { return chatRoomId; }
+        public void setChatRoomId(Long chatRoomId) { this.chatRoomId = chatRoomId; }
+        public Long getPeerId() { return peerId; }
+        public void setPeerId(Long peerId) { this.peerId = peerId; }
+        public Long getMessageId() { return messageId; }
+        public void setMessageId(Long messageId) { this.messageId = messageId; }
+        public Long getSeq() { return seq; }
+        public void setSeq(Long seq) { this.seq = seq; }
+    }
+
     public static class DirectChatRoomRequest {
         private Long user1Id;
         private Long user2Id;
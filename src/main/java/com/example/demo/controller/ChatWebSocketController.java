@@ -1,48 +1,81 @@
 package com.example.demo.controller;
 
+import com.example.demo.cluster.ClusterMessagingTemplate;
 import com.example.demo.dto.ChatMessageDto;
+import com.example.demo.dto.UserSnapshot;
 import com.example.demo.model.ChatMessage;
-import com.example.demo.model.User;
 import com.example.demo.service.ChatService;
+import com.example.demo.service.PresenceRegistry;
 import com.example.demo.service.UserService;
+import com.example.demo.websocket.OfflineMailbox;
+import com.example.demo.websocket.ReceiptSender;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaders;
 import org.springframework.stereotype.Controller;
 
+import java.util.function.Consumer;
+
 @Controller
+@Timed(value = "chat.stomp.handler", description = "STOMP messages handled per @MessageMapping method")
 public class ChatWebSocketController {
 
+    // Relative to the user: clients subscribe to /user/queue/messages, and users are known by their email.
+    private static final String USER_QUEUE = "/queue/messages";
+
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
+    @Autowired
+    private ClusterMessagingTemplate clusterMessaging;
+
     @Autowired
     private ChatService chatService;
 
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Autowired
+    private ReceiptSender receiptSender;
+
+    @Autowired(required = false)
+    private OfflineMailbox offlineMailbox;
+
+    /**
+     * Fans a direct message out as soon as it has an id. A {@code receipt} header on the SEND frame is answered
+     * once the message is stored; if storing it fails, a FAILED message with the same id follows it instead.
+     * A receiver who is not connected finds the message in their {@link OfflineMailbox}.
+     */
     @MessageMapping("/chat.sendMessage")
     @SendTo("/topic/public")
-    public ChatMessageDto sendMessage(@Payload ChatMessageDto chatMessageDto) {
+    public ChatMessageDto sendMessage(@Payload ChatMessageDto chatMessageDto, SimpMessageHeaderAccessor headerAccessor) {
         try {
-            User sender = userService.findById(chatMessageDto.getSenderId());
-            User receiver = userService.findById(chatMessageDto.getReceiverId());
+            UserSnapshot sender = userService.getUserSnapshot(chatMessageDto.getSenderId());
+            UserSnapshot receiver = userService.getUserSnapshot(chatMessageDto.getReceiverId());
 
-            ChatMessage chatMessage = chatService.sendMessage(
+            ChatService.AcceptedMessage accepted = chatService.acceptMessage(
                     chatMessageDto.getContent(),
-                    sender,
-                    receiver,
+                    sender.toReference(),
+                    receiver.toReference(),
                     null);
 
-            ChatMessageDto responseDto = convertToDto(chatMessage);
+            ChatMessageDto responseDto = convertToDto(accepted.message());
+
+            sendToReceiver(receiver.email(), responseDto);
+            clusterMessaging.relay("/topic/public", responseDto);
 
-            messagingTemplate.convertAndSendToUser(
-                    String.valueOf(receiver.getId()),
-                    "/user/queue/messages",
-                    responseDto);
+            acknowledgeWhenPersisted(accepted, headerAccessor, failed -> {
+                sendToReceiver(receiver.email(), failed);
+                clusterMessaging.convertAndSend("/topic/public", failed);
+            });
 
             return responseDto;
         } catch (Exception e) {
@@ -54,15 +87,15 @@ public class ChatWebSocketController {
 
     @MessageMapping("/chat.addUser")
     @SendTo("/topic/public")
-    public ChatMessageDto addUser(@Payload ChatMessageDto chatMessageDto) {
+    public ChatMessageDto addUser(@Payload ChatMessageDto chatMessageDto, SimpMessageHeaderAccessor headerAccessor) {
         try {
-            User user = userService.findById(chatMessageDto.getSenderId());
+            UserSnapshot user = userService.getUserSnapshot(chatMessageDto.getSenderId());
             chatMessageDto.setType("JOIN");
-            chatMessageDto.setSenderName(user.getName());
+            chatMessageDto.setSenderName(user.name());
 
-            userService.setOnlineStatus(user.getId(), true);
+            presenceRegistry.sessionConnected(headerAccessor.getSessionId(), user.id());
 
-            messagingTemplate.convertAndSend("/topic/public", chatMessageDto);
+            clusterMessaging.convertAndSend("/topic/public", chatMessageDto);
 
             return chatMessageDto;
         } catch (Exception e) {
@@ -72,22 +105,27 @@ public class ChatWebSocketController {
         }
     }
 
+    /**
+     * Like {@link #sendMessage}, for a room.
+     */
     @MessageMapping("/chat.sendToRoom")
-    public void sendToRoom(@Payload ChatMessageDto chatMessageDto) {
+    public void sendToRoom(@Payload ChatMessageDto chatMessageDto, SimpMessageHeaderAccessor headerAccessor) {
         try {
-            User sender = userService.findById(chatMessageDto.getSenderId());
+            UserSnapshot sender = userService.getUserSnapshot(chatMessageDto.getSenderId());
 
-            ChatMessage chatMessage = chatService.sendMessage(
+            ChatService.AcceptedMessage accepted = chatService.acceptMessage(
                     chatMessageDto.getContent(),
-                    sender,
+                    sender.toReference(),
                     null,
                     chatMessageDto.getChatRoomId());
 
-            ChatMessageDto responseDto = convertToDto(chatMessage);
+            ChatMessageDto responseDto = convertToDto(accepted.message());
+            String destination = "/topic/room/" + chatMessageDto.getChatRoomId();
 
-            messagingTemplate.convertAndSend(
-                    "/topic/room/" + chatMessageDto.getChatRoomId(),
-                    responseDto);
+            clusterMessaging.convertAndSend(destination, responseDto);
+
+            acknowledgeWhenPersisted(accepted, headerAccessor,
+                    failed -> clusterMessaging.convertAndSend(destination, failed));
         } catch (Exception e) {
             ChatMessageDto errorDto = new ChatMessageDto();
             errorDto.setType("ERROR");
@@ -98,7 +136,34 @@ public class ChatWebSocketController {
         }
     }
 
-    private ChatMessageDto convertToDto(ChatMessage chatMessage) {
+    private void sendToReceiver(String email, ChatMessageDto message) {
+        Runnable sendLive = () -> clusterMessaging.convertAndSendToUser(email, USER_QUEUE, message);
+        if (offlineMailbox != null) {
+            offlineMailbox.deliver(message, sendLive);
+        } else {
+            sendLive.run();
+        }
+    }
+
+    // Runs on whichever thread stores the message, so both outcomes only hand frames to the channels.
+    private void acknowledgeWhenPersisted(ChatService.AcceptedMessage accepted, SimpMessageHeaderAccessor headerAccessor,
+                                          Consumer<ChatMessageDto> sendFailed) {
+        String receiptId = headerAccessor.getFirstNativeHeader(StompHeaders.RECEIPT);
+        String sessionId = headerAccessor.getSessionId();
+        accepted.persisted().whenComplete((stored, failure) -> {
+            if (failure == null) {
+                if (receiptId != null) {
+                    receiptSender.sendReceipt(sessionId, receiptId);
+                }
+                return;
+            }
+            ChatMessageDto failed = convertToDto(accepted.message());
+            failed.setType("FAILED");
+            sendFailed.accept(failed);
+        });
+    }
+
+    ChatMessageDto convertToDto(ChatMessage chatMessage) {
         ChatMessageDto dto = new ChatMessageDto();
         dto.setId(chatMessage.getId());
         dto.setContent(chatMessage.getContent());
@@ -115,6 +180,8 @@ public class ChatWebSocketController {
             dto.setChatRoomId(chatMessage.getChatRoom().getId());
         }
 
+        dto.setSeq(chatMessage.getSeq());
+
         dto.setType("CHAT");
         return dto;
     }
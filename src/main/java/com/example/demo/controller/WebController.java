@@ -1,9 +1,11 @@
 package com.example.demo.controller;
 
 import com.example.demo.model.User;
+import com.example.demo.service.TokenService;
 import com.example.demo.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
@@ -14,6 +16,9 @@ public class WebController {
     @Autowired
     private UserService userService;
 
+    @Autowired(required = false)
+    private TokenService tokenService;
+
     @GetMapping("/admin")
     public String adminDashboard(Model model, Authentication authentication) {
         model.addAttribute("users", userService.findAll());
@@ -26,6 +31,12 @@ public class WebController {
         User currentUser = userService.findByEmail(authentication.getName());
         model.addAttribute("currentUser", currentUser);
         model.addAttribute("onlineUsers", userService.findOnlineUsers());
+        if (tokenService != null) {
+            // The page calls the API and opens the WebSocket with a token, refreshing it at half its lifetime.
+            model.addAttribute("accessToken", tokenService.issue(currentUser.getEmail(), currentUser.getId(),
+                    authentication.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList()));
+            model.addAttribute("accessTokenTtlSeconds", tokenService.getTtlSeconds());
+        }
         return "chat/index";
     }
 
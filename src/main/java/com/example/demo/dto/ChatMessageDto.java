@@ -11,6 +11,7 @@ public class ChatMessageDto {
     private Long receiverId;
     private String receiverName;
     private Long chatRoomId;
+    private Long seq;
     private String type;
 
     public ChatMessageDto() {}
@@ -25,6 +26,19 @@ public class ChatMessageDto {
         this.type = "CHAT";
     }
 
+    public ChatMessageDto(Long id, String content, LocalDateTime timestamp, Long senderId, String senderName,
+                          Long receiverId, String receiverName, Long chatRoomId, Long seq) {
+        this.id = id;
+        this.content = content;
+        this.timestamp = timestamp;
+        this.senderId = senderId;
+        this.senderName = senderName;
+        this.receiverId = receiverId;
+        this.receiverName = receiverName;
+        this.chatRoomId = chatRoomId;
+        this.seq = seq;
+    }
+
     public Long getId() {
         return id;
     }
@@ -89,6 +103,14 @@ public class ChatMessageDto {
         this.chatRoomId = chatRoomId;
     }
 
+    public Long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+
     public String getType() {
         return type;
     }
@@ -0,0 +1,41 @@
+package com.example.demo.dto;
+
+import java.util.List;
+
+public class ChatMessagePage {
+    private List<ChatMessageDto> messages;
+    private String nextCursor;
+    private boolean hasMore;
+
+    public ChatMessagePage() {}
+
+    public ChatMessagePage(List<ChatMessageDto> messages, String nextCursor, boolean hasMore) {
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<ChatMessageDto> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<ChatMessageDto> messages) {
+        this.messages = messages;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.demo.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Opaque keyset position in a message history, ordered by {@code (timestamp, id)}. Room lists use it too, with the
+ * room's last activity time and id.
+ */
+public record MessageCursor(LocalDateTime timestamp, Long id) {
+
+    private static final String SEPARATOR = "_";
+
+    public static MessageCursor of(ChatMessageDto message) {
+        return new MessageCursor(message.getTimestamp(), message.getId());
+    }
+
+    public String encode() {
+        String raw = timestamp + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static MessageCursor decode(String value) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf(SEPARATOR);
+            return new MessageCursor(
+                    LocalDateTime.parse(raw.substring(0, separator)),
+                    Long.parseLong(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid message cursor: " + value, e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.demo.dto;
+
+import java.util.List;
+
+/**
+ * Messages of one chat room (or of the direct conversation with {@code peerId}) that a resuming subscriber missed,
+ * oldest first. When {@code truncated} is set there were more than could be replayed, and the client should reload
+ * the conversation's history instead.
+ */
+public record MessageReplay(Long chatRoomId, Long peerId, List<ChatMessageDto> messages, boolean truncated) {
+}
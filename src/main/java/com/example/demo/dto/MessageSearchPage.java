@@ -0,0 +1,9 @@
+package com.example.demo.dto;
+
+import java.util.List;
+
+/**
+ * One page of message search results, best match first.
+ */
+public record MessageSearchPage(List<ChatMessageDto> messages, long totalHits, int page, int size) {
+}
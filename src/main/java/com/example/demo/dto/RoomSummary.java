@@ -0,0 +1,15 @@
+package com.example.demo.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * A chat room as shown in a user's room list: its participants, a preview of its newest message and the user's
+ * unread count. {@code lastActivityAt} is the time of the newest message, or the creation time of a room without
+ * messages; the last message fields are null then.
+ */
+public record RoomSummary(Long id, String name, String description, boolean direct,
+                          List<Long> participantIds, List<String> participantNames,
+                          Long lastMessageId, String lastMessagePreview, Long lastMessageSenderId,
+                          String lastMessageSenderName, LocalDateTime lastActivityAt, long unreadCount) {
+}
@@ -0,0 +1,10 @@
+package com.example.demo.dto;
+
+import java.util.List;
+
+/**
+ * One page of a user's room list, most recently active room first; pass {@code nextCursor} back to load the next
+ * page.
+ */
+public record RoomSummaryPage(List<RoomSummary> rooms, String nextCursor, boolean hasMore) {
+}
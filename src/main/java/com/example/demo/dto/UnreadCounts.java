@@ -0,0 +1,10 @@
+package com.example.demo.dto;
+
+import java.util.Map;
+
+/**
+ * Unread message counts of one user: per direct conversation (keyed by the other user's id) and per chat room
+ * (keyed by room id). Conversations without unread messages are left out.
+ */
+public record UnreadCounts(Map<Long, Long> direct, Map<Long, Long> rooms, long total) {
+}
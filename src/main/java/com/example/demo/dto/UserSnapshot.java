@@ -0,0 +1,30 @@
+package com.example.demo.dto;
+
+import com.example.demo.model.Role;
+import com.example.demo.model.User;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable copy of the user fields the messaging path needs, safe to share between threads and cache.
+ */
+public record UserSnapshot(Long id, String name, String email, Set<String> roles) {
+
+    public static UserSnapshot of(User user) {
+        Set<String> roles = user.getRoles().stream()
+                .map(Role::getName)
+                .collect(Collectors.toUnmodifiableSet());
+        return new UserSnapshot(user.getId(), user.getName(), user.getEmail(), roles);
+    }
+
+    /**
+     * Returns a detached {@link User} carrying only id, name and email, for use as a message association.
+     * It must never be saved or merged.
+     */
+    public User toReference() {
+        User user = new User(name, email, null);
+        user.setId(id);
+        return user;
+    }
+}
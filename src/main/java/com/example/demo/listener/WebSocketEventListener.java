@@ -1,13 +1,14 @@
 package com.example.demo.listener;
 
+import com.example.demo.cluster.ClusterMessagingTemplate;
 import com.example.demo.dto.ChatMessageDto;
-import com.example.demo.model.User;
+import com.example.demo.dto.UserSnapshot;
+import com.example.demo.service.PresenceRegistry;
 import com.example.demo.service.UserService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
-import org.springframework.messaging.simp.SimpMessageSendingOperations;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 
 import org.springframework.stereotype.Component;
@@ -22,44 +23,48 @@ public class WebSocketEventListener {
     private static final Logger logger = LoggerFactory.getLogger(WebSocketEventListener.class);
 
     @Autowired
-    private SimpMessageSendingOperations messagingTemplate;
+    private ClusterMessagingTemplate clusterMessaging;
 
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
     @EventListener
     public void handleWebSocketConnectListener(SessionConnectedEvent event) {
-        logger.info("Received a new web socket connection");
-        // We can track connection here if needed, but JOIN message handles the UI
-        // update
+        StompHeaderAccessor headerAccessor = StompHeaderAccessor.wrap(event.getMessage());
+
+        Principal principal = headerAccessor.getUser();
+        if (principal == null) {
+            // Anonymous sessions are registered when they send the JOIN message
+            return;
+        }
+        try {
+            UserSnapshot user = userService.getUserSnapshotByEmail(principal.getName());
+            presenceRegistry.sessionConnected(headerAccessor.getSessionId(), user.id());
+        } catch (Exception e) {
+            logger.error("Error handling connect for user: " + principal.getName(), e);
+        }
     }
 
     @EventListener
     public void handleWebSocketDisconnectListener(SessionDisconnectEvent event) {
-        StompHeaderAccessor headerAccessor = StompHeaderAccessor.wrap(event.getMessage());
-
-        Principal principal = (Principal) headerAccessor.getUser();
-        if (principal != null) {
-            String username = principal.getName(); // In our case, this is email
-
+        // Only the user's last open session makes them leave
+        presenceRegistry.sessionDisconnected(event.getSessionId()).ifPresent(userId -> {
             try {
-                User user = userService.findByEmail(username);
-                if (user != null) {
-                    logger.info("User Disconnected : " + username);
+                UserSnapshot user = userService.getUserSnapshot(userId);
+                logger.info("User Disconnected : " + user.email());
 
-                    // Update online status in DB
-                    userService.setOnlineStatus(user.getId(), false);
+                ChatMessageDto chatMessage = new ChatMessageDto();
+                chatMessage.setType("LEAVE");
+                chatMessage.setSenderId(user.id());
+                chatMessage.setSenderName(user.name());
 
-                    ChatMessageDto chatMessage = new ChatMessageDto();
-                    chatMessage.setType("LEAVE");
-                    chatMessage.setSenderId(user.getId());
-                    chatMessage.setSenderName(user.getName());
-
-                    messagingTemplate.convertAndSend("/topic/public", chatMessage);
-                }
+                clusterMessaging.convertAndSend("/topic/public", chatMessage);
             } catch (Exception e) {
-                logger.error("Error handling disconnect for user: " + username, e);
+                logger.error("Error handling disconnect for user: " + userId, e);
             }
-        }
+        });
     }
 }
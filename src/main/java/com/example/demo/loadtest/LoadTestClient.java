@@ -0,0 +1,152 @@
+package com.example.demo.loadtest;
+
+import com.example.demo.dto.ChatMessageDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * One simulated browser, connected as its user: subscribes to the public topic, its user queue and every load test
+ * room, joins, then sends messages whose content carries the send time so every receiving client can record the
+ * end-to-end latency. Direct messages are timed on the user queue, room messages on the room topics.
+ */
+class LoadTestClient extends StompSessionHandlerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadTestClient.class);
+
+    static final String CONTENT_PREFIX = "lt|";
+
+    private final long userId;
+    private final List<Long> roomIds;
+    private final LoadTestMetrics metrics;
+    private volatile StompSession session;
+
+    LoadTestClient(long userId, List<Long> roomIds, LoadTestMetrics metrics) {
+        this.userId = userId;
+        this.roomIds = roomIds;
+        this.metrics = metrics;
+    }
+
+    long getUserId() {
+        return userId;
+    }
+
+    boolean isConnected() {
+        return session != null && session.isConnected();
+    }
+
+    @Override
+    public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
+        this.session = session;
+        session.subscribe("/topic/public", new FrameHandler(null));
+        session.subscribe("/user/queue/messages", new FrameHandler(metrics.directLatency));
+        // The simple broker matches destinations exactly, so each room is subscribed to on its own.
+        FrameHandler roomHandler = new FrameHandler(metrics.roomLatency);
+        for (Long roomId : roomIds) {
+            session.subscribe("/topic/room/" + roomId, roomHandler);
+        }
+
+        ChatMessageDto join = new ChatMessageDto();
+        join.setSenderId(userId);
+        join.setType("JOIN");
+        session.send("/app/chat.addUser", join);
+    }
+
+    void sendDirect(long receiverId) {
+        ChatMessageDto message = newMessage();
+        message.setReceiverId(receiverId);
+        if (send("/app/chat.sendMessage", message)) {
+            metrics.directSent.increment();
+        }
+    }
+
+    void sendToRoom(long roomId) {
+        ChatMessageDto message = newMessage();
+        message.setChatRoomId(roomId);
+        if (send("/app/chat.sendToRoom", message)) {
+            metrics.roomSent.increment();
+        }
+    }
+
+    void disconnect() {
+        StompSession current = session;
+        if (current != null && current.isConnected()) {
+            current.disconnect();
+        }
+    }
+
+    @Override
+    public void handleException(StompSession session, StompCommand command, StompHeaders headers, byte[] payload,
+                                Throwable exception) {
+        metrics.errorsReceived.increment();
+        logger.debug("Client {} failed to handle {} frame", userId, command, exception);
+    }
+
+    @Override
+    public void handleTransportError(StompSession session, Throwable exception) {
+        metrics.transportErrors.increment();
+        logger.debug("Client {} transport error", userId, exception);
+    }
+
+    private ChatMessageDto newMessage() {
+        ChatMessageDto message = new ChatMessageDto();
+        message.setSenderId(userId);
+        message.setType("CHAT");
+        return message;
+    }
+
+    private boolean send(String destination, ChatMessageDto message) {
+        StompSession current = session;
+        if (current == null || !current.isConnected()) {
+            metrics.sendFailures.increment();
+            return false;
+        }
+        message.setContent(CONTENT_PREFIX + System.nanoTime());
+        try {
+            current.send(destination, message);
+            return true;
+        } catch (RuntimeException e) {
+            metrics.sendFailures.increment();
+            logger.debug("Client {} failed to send to {}", userId, destination, e);
+            return false;
+        }
+    }
+
+    private class FrameHandler implements StompFrameHandler {
+
+        // Null for destinations that only count frames, such as the public topic every message is broadcast on.
+        private final LatencyHistogram latency;
+
+        FrameHandler(LatencyHistogram latency) {
+            this.latency = latency;
+        }
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return ChatMessageDto.class;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            long receivedAt = System.nanoTime();
+            metrics.framesReceived.increment();
+            ChatMessageDto message = (ChatMessageDto) payload;
+            if ("ERROR".equals(message.getType())) {
+                metrics.errorsReceived.increment();
+                return;
+            }
+            String content = message.getContent();
+            if (latency == null || content == null || !content.startsWith(CONTENT_PREFIX)) {
+                return;
+            }
+            latency.recordNanos(receivedAt - Long.parseLong(content.substring(CONTENT_PREFIX.length())));
+        }
+    }
+}
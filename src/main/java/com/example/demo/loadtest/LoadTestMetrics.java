@@ -0,0 +1,25 @@
+package com.example.demo.loadtest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms shared by all simulated clients of one load test run.
+ */
+public class LoadTestMetrics {
+
+    final LatencyHistogram connectLatency = new LatencyHistogram();
+    final LatencyHistogram directLatency = new LatencyHistogram();
+    final LatencyHistogram roomLatency = new LatencyHistogram();
+
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder transportErrors = new LongAdder();
+    final LongAdder directSent = new LongAdder();
+    final LongAdder roomSent = new LongAdder();
+    final LongAdder sendFailures = new LongAdder();
+    final LongAdder framesReceived = new LongAdder();
+    final LongAdder errorsReceived = new LongAdder();
+
+    long totalReceived() {
+        return framesReceived.sum();
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.demo.loadtest;
+
+import com.example.demo.model.ChatRoom;
+import com.example.demo.model.Role;
+import com.example.demo.model.User;
+import com.example.demo.repository.ChatRoomRepository;
+import com.example.demo.repository.UserRepository;
+import com.example.demo.service.TokenService;
+import com.example.demo.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process load generator, enabled with {@code chat.loadtest.enabled=true}. Once the application is up it
+ * seeds {@code users} users and {@code rooms} rooms, connects one STOMP client per user to this server's own
+ * {@code /ws} endpoint, lets every client send {@code messages-per-user} direct or room messages, and logs
+ * connection setup time, send-to-receive latency percentiles and throughput.
+ * <p>
+ * Clients connect as their users with access tokens, so {@code chat.auth.token.enabled} must be on; anonymous
+ * clients would never receive anything on their user queue.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.loadtest.enabled", havingValue = "true")
+public class LoadTestRunner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadTestRunner.class);
+
+    private static final String EMAIL_DOMAIN = "@loadtest.local";
+    private static final String ROOM_PREFIX = "loadtest-room-";
+
+    private final WebServerApplicationContext context;
+    private final UserRepository userRepository;
+    private final ChatRoomRepository chatRoomRepository;
+    private final UserService userService;
+    private final PasswordEncoder passwordEncoder;
+    private final ObjectMapper objectMapper;
+    private final ObjectProvider<TokenService> tokenService;
+
+    @Value("${chat.loadtest.users:100}")
+    private int users;
+
+    @Value("${chat.loadtest.rooms:10}")
+    private int rooms;
+
+    @Value("${chat.loadtest.messages-per-user:10}")
+    private int messagesPerUser;
+
+    @Value("${chat.loadtest.direct-ratio:0.5}")
+    private double directRatio;
+
+    @Value("${chat.loadtest.send-interval-ms:200}")
+    private long sendIntervalMs;
+
+    @Value("${chat.loadtest.send-threads:4}")
+    private int sendThreads;
+
+    @Value("${chat.loadtest.connect-concurrency:50}")
+    private int connectConcurrency;
+
+    @Value("${chat.loadtest.transport:sockjs}")
+    private String transport;
+
+    @Value("${chat.loadtest.drain-timeout-ms:30000}")
+    private long drainTimeoutMs;
+
+    @Value("${chat.loadtest.exit-on-finish:true}")
+    private boolean exitOnFinish;
+
+    public LoadTestRunner(WebServerApplicationContext context, UserRepository userRepository,
+                          ChatRoomRepository chatRoomRepository, UserService userService,
+                          PasswordEncoder passwordEncoder, ObjectMapper objectMapper,
+                          ObjectProvider<TokenService> tokenService) {
+        this.context = context;
+        this.userRepository = userRepository;
+        this.chatRoomRepository = chatRoomRepository;
+        this.userService = userService;
+        this.passwordEncoder = passwordEncoder;
+        this.objectMapper = objectMapper;
+        this.tokenService = tokenService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        TokenService tokens = tokenService.getIfAvailable();
+        if (tokens == null) {
+            throw new IllegalStateException("chat.loadtest.enabled requires chat.auth.token.enabled=true");
+        }
+        List<User> seededUsers = seedUsers();
+        List<Long> userIds = seededUsers.stream().map(User::getId).toList();
+        List<Long> roomIds = seedRooms();
+        LoadTestMetrics metrics = new LoadTestMetrics();
+
+        WebSocketStompClient stompClient = new WebSocketStompClient(transportClient());
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(objectMapper);
+        stompClient.setMessageConverter(converter);
+
+        logger.info("Load test: connecting {} clients over {} to port {}",
+                userIds.size(), transport, context.getWebServer().getPort());
+        List<LoadTestClient> clients = connect(stompClient, tokens, seededUsers, roomIds, metrics);
+        // Give the JOIN messages and subscriptions time to settle before measuring.
+        Thread.sleep(1000);
+
+        long sendStart = System.nanoTime();
+        sendAll(clients, userIds, roomIds);
+        long sendNanos = System.nanoTime() - sendStart;
+        long deliveryNanos = drain(metrics) - sendStart;
+
+        report(metrics, clients, roomIds.size(), sendNanos, deliveryNanos);
+
+        clients.forEach(LoadTestClient::disconnect);
+        stompClient.stop();
+        if (exitOnFinish) {
+            new Thread(() -> System.exit(SpringApplication.exit(context)), "loadtest-exit").start();
+        }
+    }
+
+    private List<User> seedUsers() {
+        Role userRole = userService.getRoleByName("ROLE_USER");
+        String password = passwordEncoder.encode("loadtest");
+        List<User> created = new ArrayList<>();
+        List<User> seeded = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            String email = "user" + i + EMAIL_DOMAIN;
+            User existing = userRepository.findByEmail(email).orElse(null);
+            if (existing != null) {
+                seeded.add(existing);
+                continue;
+            }
+            User user = new User("Load Test " + i, email, password);
+            user.setRoles(new HashSet<>(Set.of(userRole)));
+            user.setLastSeen(LocalDateTime.now());
+            created.add(user);
+        }
+        userRepository.saveAll(created).forEach(seeded::add);
+        return seeded;
+    }
+
+    private List<Long> seedRooms() {
+        List<Long> ids = new ArrayList<>(rooms);
+        for (int i = 0; i < rooms; i++) {
+            String name = ROOM_PREFIX + i;
+            ChatRoom room = chatRoomRepository.findByNameContaining(name).stream()
+                    .filter(candidate -> candidate.getName().equals(name))
+                    .findFirst()
+                    .orElseGet(() -> chatRoomRepository.save(new ChatRoom(name, "Load test room")));
+            ids.add(room.getId());
+        }
+        return ids;
+    }
+
+    private WebSocketClient transportClient() {
+        StandardWebSocketClient webSocketClient = new StandardWebSocketClient();
+        if ("websocket".equals(transport)) {
+            return webSocketClient;
+        }
+        if ("sockjs".equals(transport)) {
+            return new SockJsClient(List.of(new WebSocketTransport(webSocketClient)));
+        }
+        throw new IllegalStateException("Unknown chat.loadtest.transport: " + transport);
+    }
+
+    private List<LoadTestClient> connect(WebSocketStompClient stompClient, TokenService tokens, List<User> seededUsers,
+                                         List<Long> roomIds, LoadTestMetrics metrics) throws InterruptedException {
+        String scheme = "websocket".equals(transport) ? "ws" : "http";
+        String url = scheme + "://localhost:" + context.getWebServer().getPort() + "/ws?access_token={token}";
+        List<String> roles = List.of("ROLE_USER");
+        Semaphore permits = new Semaphore(connectConcurrency);
+        CountDownLatch done = new CountDownLatch(seededUsers.size());
+        List<LoadTestClient> clients = new ArrayList<>(seededUsers.size());
+        for (User user : seededUsers) {
+            Long userId = user.getId();
+            LoadTestClient client = new LoadTestClient(userId, roomIds, metrics);
+            clients.add(client);
+            permits.acquire();
+            long start = System.nanoTime();
+            String token = tokens.issue(user.getEmail(), userId, roles);
+            stompClient.connectAsync(url, client, token).whenComplete((session, failure) -> {
+                if (failure == null) {
+                    metrics.connectLatency.recordNanos(System.nanoTime() - start);
+                } else {
+                    metrics.connectFailures.increment();
+                    logger.debug("Client {} failed to connect", userId, failure);
+                }
+                permits.release();
+                done.countDown();
+            });
+        }
+        if (!done.await(5, TimeUnit.MINUTES)) {
+            logger.warn("Load test: {} clients still connecting after 5 minutes", done.getCount());
+        }
+        return clients.stream().filter(LoadTestClient::isConnected).toList();
+    }
+
+    private void sendAll(List<LoadTestClient> clients, List<Long> userIds, List<Long> roomIds)
+            throws InterruptedException {
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(sendThreads);
+        CountDownLatch sent = new CountDownLatch(clients.size() * messagesPerUser);
+        for (LoadTestClient client : clients) {
+            long offset = ThreadLocalRandom.current().nextLong(Math.max(1, sendIntervalMs));
+            for (int i = 0; i < messagesPerUser; i++) {
+                senders.schedule(() -> {
+                    try {
+                        sendOne(client, userIds, roomIds);
+                    } finally {
+                        sent.countDown();
+                    }
+                }, offset + i * sendIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        sent.await();
+        senders.shutdown();
+    }
+
+    private void sendOne(LoadTestClient client, List<Long> userIds, List<Long> roomIds) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean direct = roomIds.isEmpty() || (userIds.size() > 1 && random.nextDouble() < directRatio);
+        if (direct) {
+            long receiverId;
+            do {
+                receiverId = userIds.get(random.nextInt(userIds.size()));
+            } while (receiverId == client.getUserId() && userIds.size() > 1);
+            client.sendDirect(receiverId);
+        } else {
+            client.sendToRoom(roomIds.get(random.nextInt(roomIds.size())));
+        }
+    }
+
+    // Waits until no frame has arrived for a second, or the drain timeout; returns when the last frame arrived.
+    private long drain(LoadTestMetrics metrics) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMs);
+        long lastCount = -1;
+        long lastChange = System.nanoTime();
+        while (System.nanoTime() < deadline) {
+            long count = metrics.totalReceived();
+            if (count != lastCount) {
+                lastCount = count;
+                lastChange = System.nanoTime();
+            } else if (System.nanoTime() - lastChange > TimeUnit.SECONDS.toNanos(1)) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+        return lastChange;
+    }
+
+    private void report(LoadTestMetrics metrics, List<LoadTestClient> clients, int roomCount, long sendNanos,
+                        long deliveryNanos) {
+        long directSent = metrics.directSent.sum();
+        long roomSent = metrics.roomSent.sum();
+        double sendSeconds = sendNanos / 1e9;
+        double deliverySeconds = deliveryNanos / 1e9;
+        long received = metrics.totalReceived();
+
+        StringBuilder report = new StringBuilder("Load test finished\n");
+        report.append(String.format("  clients     %d connected, %d failed, %d rooms, transport %s%n",
+                clients.size(), metrics.connectFailures.sum(), roomCount, transport));
+        report.append(String.format("  connect     %s%n", percentiles(metrics.connectLatency)));
+        report.append(String.format("  sent        %d direct, %d room, %d failed in %.1fs (%.0f msg/s)%n",
+                directSent, roomSent, metrics.sendFailures.sum(), sendSeconds,
+                (directSent + roomSent) / sendSeconds));
+        report.append(String.format("  received    %d frames in %.1fs (%.0f frames/s), %d errors, %d transport errors%n",
+                received, deliverySeconds, received / deliverySeconds, metrics.errorsReceived.sum(),
+                metrics.transportErrors.sum()));
+        report.append(String.format("  direct      %d of %d delivered, %s%n",
+                metrics.directLatency.getCount(), directSent, percentiles(metrics.directLatency)));
+        report.append(String.format("  room        %d of %d fan-out deliveries, %s",
+                metrics.roomLatency.getCount(), roomSent * clients.size(), percentiles(metrics.roomLatency)));
+        logger.info(report.toString());
+    }
+
+    private static String percentiles(LatencyHistogram histogram) {
+        return String.format("p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms",
+                histogram.percentileMicros(50) / 1000.0, histogram.percentileMicros(99) / 1000.0,
+                histogram.percentileMicros(99.9) / 1000.0, histogram.getMaxMicros() / 1000.0);
+    }
+}
@@ -5,11 +5,21 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "chat_messages")
+// History pages are read newest first, and H2 only skips the sort when it can walk an index forwards.
+@Table(name = "chat_messages", indexes = {
+        @Index(name = "idx_chat_messages_conversation", columnList = "conversation_key, timestamp DESC, id DESC"),
+        @Index(name = "idx_chat_messages_room", columnList = "chat_room_id, timestamp DESC, id DESC")
+})
 @Schema(description = "Represents a chat message between users")
 public class ChatMessage {
+    public static final String ID_SEQUENCE = "chat_messages_seq";
+
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    // Sequence ids (unlike IDENTITY) let Hibernate and the write-behind queue batch inserts.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chat_message_id")
+    @SequenceGenerator(name = "chat_message_id", sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     @Schema(description = "Unique identifier of the message", example = "1")
     private Long id;
     
@@ -25,14 +35,24 @@ public class ChatMessage {
     private User sender;
     
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "receiver_id", nullable = false)
-    @Schema(description = "User who received the message")
+    @JoinColumn(name = "receiver_id")
+    @Schema(description = "User who received the message; empty for chat room messages")
     private User receiver;
     
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "chat_room_id")
     @Schema(description = "Chat room where the message was sent")
     private ChatRoom chatRoom;
+
+    // Numbered separately per chat room and per direct conversation, see MessageSequencer.
+    @Column(name = "seq")
+    @Schema(description = "Position of the message in its chat room or direct conversation", example = "42")
+    private Long seq;
+
+    // Same for both directions of a conversation, so its history is one range of the conversation index.
+    @Column(name = "conversation_key", length = 41)
+    @Schema(description = "Ordered user id pair of a message with a receiver", example = "1:2")
+    private String conversationKey;
     
     public ChatMessage() {
         this.timestamp = LocalDateTime.now();
@@ -92,4 +112,28 @@ public class ChatMessage {
     public void setChatRoom(ChatRoom chatRoom) {
         this.chatRoom = chatRoom;
     }
-}
\ No newline at end of file
+
+    public Long getSeq() {
+        return seq;
+    }
+    
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+
+    public String getConversationKey() {
+        return conversationKey;
+    }
+
+    @PrePersist
+    void assignConversationKey() {
+        conversationKey = receiver != null ? conversationKey(sender.getId(), receiver.getId()) : null;
+    }
+
+    /**
+     * The {@code conversation_key} of messages between two users, whichever of them sent it.
+     */
+    public static String conversationKey(Long user1Id, Long user2Id) {
+        return Math.min(user1Id, user2Id) + ":" + Math.max(user1Id, user2Id);
+    }
+}
@@ -7,7 +7,8 @@ import java.util.HashSet;
 import java.util.Set;
 
 @Entity
-@Table(name = "chat_rooms")
+@Table(name = "chat_rooms", uniqueConstraints = @UniqueConstraint(
+        name = "uk_chat_rooms_direct_pair", columnNames = {"direct_user_a_id", "direct_user_b_id"}))
 @Schema(description = "Represents a chat room for group conversations")
 public class ChatRoom {
     @Id
@@ -36,6 +37,15 @@ public class ChatRoom {
     @OneToMany(mappedBy = "chatRoom", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     @Schema(description = "Messages sent in the chat room")
     private Set<ChatMessage> messages = new HashSet<>();
+
+    // Only set on direct rooms: their two users, lower id first. Unique, so each pair has at most one direct room.
+    @Column(name = "direct_user_a_id")
+    @Schema(description = "Lower user id of a direct chat room", example = "1")
+    private Long directUserAId;
+
+    @Column(name = "direct_user_b_id")
+    @Schema(description = "Higher user id of a direct chat room", example = "2")
+    private Long directUserBId;
     
     public ChatRoom() {
         this.createdAt = LocalDateTime.now();
@@ -102,4 +112,24 @@ public class ChatRoom {
     public void setMessages(Set<ChatMessage> messages) {
         this.messages = messages;
     }
-}
\ No newline at end of file
+
+    public Long getDirectUserAId() {
+        return directUserAId;
+    }
+
+    public Long getDirectUserBId() {
+        return directUserBId;
+    }
+
+    public boolean isDirect() {
+        return directUserAId != null;
+    }
+
+    /**
+     * Makes this the direct room of two users, in either order.
+     */
+    public void setDirectUsers(Long user1Id, Long user2Id) {
+        this.directUserAId = Math.min(user1Id, user2Id);
+        this.directUserBId = Math.max(user1Id, user2Id);
+    }
+}
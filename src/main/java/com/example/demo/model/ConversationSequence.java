@@ -0,0 +1,51 @@
+package com.example.demo.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * The last sequence number and timestamp handed out in a chat room or direct conversation. Only used with
+ * clustering enabled, where the nodes number messages in the shared database instead of in memory.
+ */
+@Entity
+@Table(name = "conversation_sequences")
+public class ConversationSequence {
+
+    // "room:<id>" for a chat room, the conversation key for a direct conversation.
+    @Id
+    @Column(name = "sequence_key", length = 64)
+    private String sequenceKey;
+
+    @Column(name = "last_seq", nullable = false)
+    private long lastSeq;
+
+    @Column(name = "last_timestamp")
+    private LocalDateTime lastTimestamp;
+
+    public ConversationSequence() {
+    }
+
+    public String getSequenceKey() {
+        return sequenceKey;
+    }
+
+    public void setSequenceKey(String sequenceKey) {
+        this.sequenceKey = sequenceKey;
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    public void setLastSeq(long lastSeq) {
+        this.lastSeq = lastSeq;
+    }
+
+    public LocalDateTime getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public void setLastTimestamp(LocalDateTime lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
+}
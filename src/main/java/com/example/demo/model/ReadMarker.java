@@ -0,0 +1,70 @@
+package com.example.demo.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "read_markers")
+@Schema(description = "The last message a user has read in a direct conversation or chat room")
+public class ReadMarker {
+
+    public enum ConversationType {
+        /** Direct messages from another user; the conversation id is that user's id. */
+        DIRECT,
+        /** A chat room; the conversation id is the room id. */
+        ROOM
+    }
+
+    @EmbeddedId
+    private ReadMarkerId id;
+
+    @Column(name = "last_read_message_id", nullable = false)
+    @Schema(description = "Id of the newest message the user has read", example = "42")
+    private Long lastReadMessageId;
+
+    // Null for markers stored before the column existed, until ReadMarkerSeqMigration fills it.
+    @Column(name = "last_read_seq")
+    @Schema(description = "Sequence number of the newest message the user has read, within the conversation",
+            example = "7")
+    private Long lastReadSeq;
+
+    @Column(name = "updated_at")
+    @Schema(description = "Timestamp when the marker last moved", example = "2023-12-01T10:30:00")
+    private LocalDateTime updatedAt;
+
+    public ReadMarker() {
+    }
+
+    public ReadMarkerId getId() {
+        return id;
+    }
+
+    public void setId(ReadMarkerId id) {
+        this.id = id;
+    }
+
+    public Long getLastReadMessageId() {
+        return lastReadMessageId;
+    }
+
+    public void setLastReadMessageId(Long lastReadMessageId) {
+        this.lastReadMessageId = lastReadMessageId;
+    }
+
+    public Long getLastReadSeq() {
+        return lastReadSeq;
+    }
+
+    public void setLastReadSeq(Long lastReadSeq) {
+        this.lastReadSeq = lastReadSeq;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.demo.model;
+
+import jakarta.persistence.*;
+import java.io.Serializable;
+import java.util.Objects;
+
+@Embeddable
+public class ReadMarkerId implements Serializable {
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "conversation_type", nullable = false, length = 16)
+    private ReadMarker.ConversationType conversationType;
+
+    @Column(name = "conversation_id", nullable = false)
+    private Long conversationId;
+
+    public ReadMarkerId() {
+    }
+
+    public ReadMarkerId(Long userId, ReadMarker.ConversationType conversationType, Long conversationId) {
+        this.userId = userId;
+        this.conversationType = conversationType;
+        this.conversationId = conversationId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public ReadMarker.ConversationType getConversationType() {
+        return conversationType;
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ReadMarkerId other)) {
+            return false;
+        }
+        return Objects.equals(userId, other.userId)
+                && conversationType == other.conversationType
+                && Objects.equals(conversationId, other.conversationId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, conversationType, conversationId);
+    }
+}
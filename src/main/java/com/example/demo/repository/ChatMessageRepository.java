@@ -1,28 +1,101 @@
 package com.example.demo.repository;
 
+import com.example.demo.dto.ChatMessageDto;
 import com.example.demo.model.ChatMessage;
 import com.example.demo.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long> {
+
+    String MESSAGE_DTO_PROJECTION = "SELECT new com.example.demo.dto.ChatMessageDto("
+            + "m.id, m.content, m.timestamp, s.id, s.name, r.id, r.name, m.chatRoom.id, m.seq) "
+            + "FROM ChatMessage m JOIN m.sender s LEFT JOIN m.receiver r ";
+
+    // Bounds the timestamp on its own so the cursor is a range on the history indexes rather than a filter.
+    String BEFORE_CURSOR = "m.timestamp <= :beforeTimestamp AND (m.timestamp < :beforeTimestamp OR m.id < :beforeId)";
+
+    // The leading key column is fixed by the WHERE clause; naming it lets the database read the index in order.
+    String ROOM_NEWEST_FIRST = " ORDER BY m.chatRoom.id, m.timestamp DESC, m.id DESC";
+
+    String CONVERSATION_NEWEST_FIRST = " ORDER BY m.conversationKey, m.timestamp DESC, m.id DESC";
+
+    // Both directions of a conversation in one range of the (conversation_key, timestamp, id) index.
+    String CONVERSATION = "m.conversationKey = :conversationKey";
+
+    // Direct messages that are numbered in the conversation's own sequence rather than a room's.
+    String DIRECT_CONVERSATION = "m.chatRoom IS NULL AND " + CONVERSATION;
     
     List<ChatMessage> findBySenderAndReceiverOrderByTimestampAsc(User sender, User receiver);
     
+    @Deprecated
     List<ChatMessage> findByChatRoom_IdOrderByTimestampAsc(Long chatRoomId);
     
-    @Query("SELECT m FROM ChatMessage m WHERE (m.sender = :user1 AND m.receiver = :user2) OR (m.sender = :user2 AND m.receiver = :user1) ORDER BY m.timestamp ASC")
-    List<ChatMessage> findConversationBetweenUsers(@Param("user1") User user1, @Param("user2") User user2);
+    @Deprecated
+    @Query("SELECT m FROM ChatMessage m WHERE " + CONVERSATION + " ORDER BY m.timestamp ASC, m.id ASC")
+    List<ChatMessage> findConversationBetweenUsers(@Param("conversationKey") String conversationKey);
     
     @Query("SELECT m FROM ChatMessage m WHERE m.timestamp >= :since ORDER BY m.timestamp ASC")
     List<ChatMessage> findMessagesSince(@Param("since") LocalDateTime since);
     
-    @Query("SELECT COUNT(m) FROM ChatMessage m WHERE m.sender = :sender AND m.receiver = :receiver AND m.timestamp >= :since")
-    long countUnreadMessages(@Param("sender") User sender, @Param("receiver") User receiver, @Param("since") LocalDateTime since);
-}
\ No newline at end of file
+    @Query("SELECT COUNT(m) FROM ChatMessage m WHERE " + CONVERSATION + " AND m.timestamp >= :since AND m.sender = :sender")
+    long countUnreadMessages(@Param("conversationKey") String conversationKey, @Param("sender") User sender,
+                             @Param("since") LocalDateTime since);
+
+    @Query(MESSAGE_DTO_PROJECTION + "WHERE m.id IN :ids")
+    List<ChatMessageDto> findDtosByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Older than any message; see findLatestChatRoomMessages.
+    LocalDateTime NO_EARLIER_THAN = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    // H2 also indexes the chat_room_id foreign key on its own and prefers that index once the query joins users,
+    // reading and sorting the whole room; a range on timestamp leaves only the history index usable.
+    default List<ChatMessageDto> findLatestChatRoomMessages(Long chatRoomId, Pageable pageable) {
+        return findChatRoomMessagesSince(chatRoomId, NO_EARLIER_THAN, pageable);
+    }
+
+    @Query(MESSAGE_DTO_PROJECTION + "WHERE m.chatRoom.id = :chatRoomId AND m.timestamp >= :since" + ROOM_NEWEST_FIRST)
+    List<ChatMessageDto> findChatRoomMessagesSince(@Param("chatRoomId") Long chatRoomId,
+                                                   @Param("since") LocalDateTime since,
+                                                   Pageable pageable);
+
+    @Query(MESSAGE_DTO_PROJECTION + "WHERE m.chatRoom.id = :chatRoomId AND " + BEFORE_CURSOR + ROOM_NEWEST_FIRST)
+    List<ChatMessageDto> findChatRoomMessagesBefore(@Param("chatRoomId") Long chatRoomId,
+                                                    @Param("beforeTimestamp") LocalDateTime beforeTimestamp,
+                                                    @Param("beforeId") Long beforeId,
+                                                    Pageable pageable);
+
+    @Query(MESSAGE_DTO_PROJECTION + "WHERE " + CONVERSATION + CONVERSATION_NEWEST_FIRST)
+    List<ChatMessageDto> findLatestConversationMessages(@Param("conversationKey") String conversationKey,
+                                                        Pageable pageable);
+
+    @Query(MESSAGE_DTO_PROJECTION + "WHERE " + CONVERSATION + " AND " + BEFORE_CURSOR + CONVERSATION_NEWEST_FIRST)
+    List<ChatMessageDto> findConversationMessagesBefore(@Param("conversationKey") String conversationKey,
+                                                        @Param("beforeTimestamp") LocalDateTime beforeTimestamp,
+                                                        @Param("beforeId") Long beforeId,
+                                                        Pageable pageable);
+
+    @Query(MESSAGE_DTO_PROJECTION + "WHERE m.chatRoom.id = :chatRoomId AND m.seq > :afterSeq ORDER BY m.seq ASC")
+    List<ChatMessageDto> findChatRoomMessagesAfterSeq(@Param("chatRoomId") Long chatRoomId,
+                                                      @Param("afterSeq") Long afterSeq,
+                                                      Pageable pageable);
+
+    @Query(MESSAGE_DTO_PROJECTION + "WHERE " + DIRECT_CONVERSATION + " AND m.seq > :afterSeq ORDER BY m.seq ASC")
+    List<ChatMessageDto> findDirectMessagesAfterSeq(@Param("conversationKey") String conversationKey,
+                                                    @Param("afterSeq") Long afterSeq,
+                                                    Pageable pageable);
+
+    @Query("SELECT MAX(m.seq) FROM ChatMessage m WHERE m.chatRoom.id = :chatRoomId")
+    Long findMaxChatRoomSeq(@Param("chatRoomId") Long chatRoomId);
+
+    @Query("SELECT MAX(m.seq) FROM ChatMessage m WHERE " + DIRECT_CONVERSATION)
+    Long findMaxDirectSeq(@Param("conversationKey") String conversationKey);
+}
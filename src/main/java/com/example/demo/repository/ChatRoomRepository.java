@@ -8,6 +8,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
 @Repository
@@ -21,8 +22,12 @@ public interface ChatRoomRepository extends JpaRepository<ChatRoom, Long> {
     @Query("SELECT cr FROM ChatRoom cr WHERE cr.name LIKE %:name%")
     List<ChatRoom> findByNameContaining(@Param("name") String name);
     
-    @Query("SELECT cr FROM ChatRoom cr JOIN cr.participants p1 JOIN cr.participants p2 WHERE p1 = :user1 AND p2 = :user2 AND p1 != p2")
-    List<ChatRoom> findDirectChatRoomsBetweenUsers(@Param("user1") User user1, @Param("user2") User user2);
+    // A lookup on the unique direct pair constraint; the lower user id goes first.
+    @Query("SELECT cr.id FROM ChatRoom cr WHERE cr.directUserAId = :userAId AND cr.directUserBId = :userBId")
+    Optional<Long> findDirectChatRoomId(@Param("userAId") Long userAId, @Param("userBId") Long userBId);
+    
+    @Query("SELECT cr.id FROM ChatRoom cr JOIN cr.participants p WHERE p.id = :userId")
+    List<Long> findIdsByParticipantId(@Param("userId") Long userId);
     
     boolean existsByName(String name);
 }
\ No newline at end of file
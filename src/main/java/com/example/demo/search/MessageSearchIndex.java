@@ -0,0 +1,372 @@
+package com.example.demo.search;
+
+import com.example.demo.model.ChatMessage;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.simple.SimpleQueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * File-backed Lucene index over chat message content. Messages are added as they are stored and become
+ * searchable at the next refresh; each commit records when it was taken, so a restart re-indexes only the messages
+ * timestamped since then, less {@code catch-up-overlap-ms}. Message ids are not in storage order (each allocator
+ * hands out its own blocks) and a message's timestamp is set before it is stored, so the overlap must cover the
+ * longest time a message takes to be stored. If the database then holds a different number of messages than the
+ * index (for example the in-memory database started empty again), the index is rebuilt from the database.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.search.enabled", havingValue = "true", matchIfMissing = true)
+public class MessageSearchIndex implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageSearchIndex.class);
+
+    public static final int MAX_RESULT_WINDOW = 1000;
+
+    private static final String ID = "id";
+    private static final String CONTENT = "content";
+    private static final String ROOM = "room";
+    private static final String PARTICIPANT = "participant";
+    private static final String CONVERSATION = "conversation";
+    private static final String TIMESTAMP = "timestamp";
+
+    private static final String COMMIT_TIME = "commitTime";
+
+    private static final int REINDEX_BATCH_SIZE = 1000;
+
+    private static final String REINDEX_SQL = "SELECT id, content, timestamp, sender_id, receiver_id, chat_room_id "
+            + "FROM chat_messages WHERE id > ? ORDER BY id LIMIT ?";
+
+    private static final String CATCH_UP_SQL = "SELECT id, content, timestamp, sender_id, receiver_id, chat_room_id "
+            + "FROM chat_messages WHERE timestamp >= ?";
+
+    private static final String COUNT_SQL = "SELECT COUNT(*) FROM chat_messages";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Path indexDir;
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final long catchUpOverlapMs;
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+
+    private Directory directory;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    private volatile boolean running;
+
+    public MessageSearchIndex(JdbcTemplate jdbcTemplate,
+                              @Value("${chat.search.index-dir:data/search-index}") String indexDir,
+                              @Value("${chat.search.catch-up-overlap-ms:300000}") long catchUpOverlapMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.indexDir = Path.of(indexDir);
+        this.catchUpOverlapMs = catchUpOverlapMs;
+    }
+
+    /**
+     * Adds or replaces a stored message. Failures are logged and do not reach the sender.
+     */
+    public void index(ChatMessage message) {
+        if (!running || message.getId() == null) {
+            return;
+        }
+        try {
+            Long roomId = message.getChatRoom() != null ? message.getChatRoom().getId() : null;
+            Long receiverId = message.getReceiver() != null ? message.getReceiver().getId() : null;
+            add(message.getId(), message.getContent(), message.getTimestamp(),
+                    message.getSender().getId(), receiverId, roomId);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to index message {}", message.getId(), e);
+        }
+    }
+
+    /**
+     * Removes messages that are no longer stored, such as archived ones. Failures are logged; the next start
+     * rebuilds the index if it still holds them.
+     */
+    public void delete(Collection<Long> messageIds) {
+        if (!running || messageIds.isEmpty()) {
+            return;
+        }
+        try {
+            writer.deleteDocuments(messageIds.stream().map(id -> new Term(ID, Long.toString(id))).toArray(Term[]::new));
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to remove {} messages from the search index", messageIds.size(), e);
+        }
+    }
+
+    /**
+     * Runs a ranked search. {@code text} uses the simple query syntax (terms must all match; quotes, {@code -},
+     * {@code |} and trailing {@code *} are supported). Results are limited to the room, the direct conversation
+     * between {@code userId} and {@code peerId}, or otherwise to {@code roomIds} and {@code userId}'s direct
+     * messages; the caller is responsible for checking access to them.
+     */
+    public SearchHits search(String text, Long userId, Collection<Long> roomIds, Long roomId, Long peerId,
+                             int page, int size) throws IOException {
+        if (page < 0 || size < 1 || (long) (page + 1) * size > MAX_RESULT_WINDOW) {
+            throw new IllegalArgumentException("Search results are limited to the first " + MAX_RESULT_WINDOW);
+        }
+        SimpleQueryParser parser = new SimpleQueryParser(analyzer, CONTENT);
+        parser.setDefaultOperator(BooleanClause.Occur.MUST);
+        Query content = parser.parse(text);
+        if (content == null) {
+            return new SearchHits(List.of(), 0);
+        }
+        Query query = new BooleanQuery.Builder()
+                .add(content, BooleanClause.Occur.MUST)
+                .add(scope(userId, roomIds, roomId, peerId), BooleanClause.Occur.FILTER)
+                .build();
+        Sort sort = new Sort(SortField.FIELD_SCORE, new SortField(TIMESTAMP, SortField.Type.LONG, true));
+
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            TopFieldDocs topDocs = searcher.search(query, (page + 1) * size, sort);
+            StoredFields storedFields = searcher.storedFields();
+            List<Long> ids = new ArrayList<>(size);
+            for (int i = page * size; i < topDocs.scoreDocs.length; i++) {
+                ScoreDoc hit = topDocs.scoreDocs[i];
+                ids.add(Long.parseLong(storedFields.document(hit.doc).get(ID)));
+            }
+            return new SearchHits(ids, topDocs.totalHits.value);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Replaces the whole index with the messages in the database.
+     *
+     * @return the number of messages indexed
+     */
+    public long rebuild() throws IOException {
+        rebuildLock.lock();
+        try {
+            writer.deleteAll();
+            long indexed = indexFrom(0);
+            commit();
+            searcherManager.maybeRefresh();
+            logger.info("Rebuilt message search index with {} messages", indexed);
+            return indexed;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    public long getIndexedCount() {
+        return writer != null ? writer.getDocStats().numDocs : 0;
+    }
+
+    @Scheduled(fixedDelayString = "${chat.search.refresh-interval-ms:1000}")
+    public void refresh() {
+        if (!running) {
+            return;
+        }
+        try {
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            logger.warn("Failed to refresh message search index", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.search.commit-interval-ms:10000}")
+    public void commit() {
+        if (!running || !writer.hasUncommittedChanges()) {
+            return;
+        }
+        try {
+            // Taken before the commit, so every message added before this time is in it.
+            writer.setLiveCommitData(Map.of(COMMIT_TIME, Long.toString(System.currentTimeMillis())).entrySet());
+            writer.commit();
+        } catch (IOException e) {
+            logger.warn("Failed to commit message search index", e);
+        }
+    }
+
+    @Override
+    public void start() {
+        try {
+            Files.createDirectories(indexDir);
+            directory = FSDirectory.open(indexDir);
+            writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+            searcherManager = new SearcherManager(writer, null);
+            running = true;
+            catchUp();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open message search index in " + indexDir, e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        commit();
+        running = false;
+        try {
+            searcherManager.close();
+            writer.close();
+            directory.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close message search index", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Open before the web server and message broker start accepting messages, close after they stop.
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    // Re-indexes what may have been stored since the last commit, then rebuilds if the index and the database still
+    // hold a different number of messages.
+    private void catchUp() throws IOException {
+        Long commitTime = committedCommitTime();
+        if (commitTime == null) {
+            rebuild();
+            return;
+        }
+        Timestamp since = Timestamp.from(Instant.ofEpochMilli(commitTime - catchUpOverlapMs));
+        AtomicLong indexed = new AtomicLong();
+        jdbcTemplate.query(CATCH_UP_SQL, rs -> {
+            addRow(rs);
+            indexed.incrementAndGet();
+        }, since);
+        commit();
+        Long stored = jdbcTemplate.queryForObject(COUNT_SQL, Long.class);
+        if (stored == null || stored != writer.getDocStats().numDocs) {
+            logger.info("Message search index does not match the database, rebuilding");
+            rebuild();
+            return;
+        }
+        searcherManager.maybeRefresh();
+        logger.info("Message search index opened with {} messages, {} re-indexed since {}",
+                writer.getDocStats().numDocs, indexed.get(), since);
+    }
+
+    private Long committedCommitTime() throws IOException {
+        if (!DirectoryReader.indexExists(directory)) {
+            return null;
+        }
+        String value = SegmentInfos.readLatestCommit(directory).getUserData().get(COMMIT_TIME);
+        return value != null ? Long.valueOf(value) : null;
+    }
+
+    private long indexFrom(long afterId) throws IOException {
+        long indexed = 0;
+        long cursor = afterId;
+        while (true) {
+            List<Long> batch = jdbcTemplate.query(REINDEX_SQL, (rs, rowNum) -> addRow(rs), cursor, REINDEX_BATCH_SIZE);
+            if (batch.isEmpty()) {
+                return indexed;
+            }
+            indexed += batch.size();
+            cursor = batch.get(batch.size() - 1);
+        }
+    }
+
+    private long addRow(ResultSet rs) throws SQLException {
+        long id = rs.getLong("id");
+        try {
+            add(id, rs.getString("content"), rs.getTimestamp("timestamp").toLocalDateTime(), rs.getLong("sender_id"),
+                    rs.getObject("receiver_id", Long.class), rs.getObject("chat_room_id", Long.class));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return id;
+    }
+
+    private void add(long id, String content, LocalDateTime timestamp, long senderId, Long receiverId, Long roomId)
+            throws IOException {
+        Document document = new Document();
+        document.add(new StringField(ID, Long.toString(id), Field.Store.YES));
+        document.add(new TextField(CONTENT, content != null ? content : "", Field.Store.NO));
+        if (roomId != null) {
+            document.add(new StringField(ROOM, Long.toString(roomId), Field.Store.NO));
+        } else if (receiverId != null) {
+            document.add(new StringField(PARTICIPANT, Long.toString(senderId), Field.Store.NO));
+            document.add(new StringField(PARTICIPANT, Long.toString(receiverId), Field.Store.NO));
+            document.add(new StringField(CONVERSATION, ChatMessage.conversationKey(senderId, receiverId),
+                    Field.Store.NO));
+        }
+        long epochMillis = timestamp != null ? timestamp.atZone(zone).toInstant().toEpochMilli() : 0;
+        document.add(new NumericDocValuesField(TIMESTAMP, epochMillis));
+        writer.updateDocument(new Term(ID, Long.toString(id)), document);
+    }
+
+    private static Query scope(Long userId, Collection<Long> roomIds, Long roomId, Long peerId) {
+        if (roomId != null) {
+            return new TermQuery(new Term(ROOM, Long.toString(roomId)));
+        }
+        if (userId == null) {
+            return new MatchNoDocsQuery();
+        }
+        if (peerId != null) {
+            return new TermQuery(new Term(CONVERSATION, ChatMessage.conversationKey(userId, peerId)));
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(PARTICIPANT, Long.toString(userId))), BooleanClause.Occur.SHOULD);
+        if (!roomIds.isEmpty()) {
+            List<BytesRef> rooms = roomIds.stream().map(id -> new BytesRef(Long.toString(id))).toList();
+            builder.add(new TermInSetQuery(ROOM, rooms), BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Message ids of one result page in rank order, and the total number of matches.
+     */
+    public record SearchHits(List<Long> messageIds, long totalHits) {
+    }
+}
@@ -22,13 +22,13 @@ public class AuthenticationService implements UserDetailsService {
     @Override
     @Transactional
     public UserDetails loadUserByUsername(String email) throws UsernameNotFoundException {
-        logger.info("Attempting to load user by email: {}", email);
+        logger.debug("Attempting to load user by email: {}", email);
         User user = userRepository.findByEmail(email)
                 .orElseThrow(() -> {
-                    logger.error("User not found with email: {}", email);
+                    logger.debug("User not found with email: {}", email);
                     return new UsernameNotFoundException("User not found with email: " + email);
                 });
-        logger.info("User found: {}, with roles: {}", user.getEmail(), user.getAuthorities());
+        logger.debug("User found: {}, with roles: {}", user.getEmail(), user.getAuthorities());
         return user;
     }
 }
@@ -0,0 +1,49 @@
+package com.example.demo.service;
+
+import com.example.demo.model.ChatMessage;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out chat message ids without inserting a row, so a message can be identified before it is persisted.
+ * Reserves blocks from the same sequence Hibernate uses and interprets them the way Hibernate's pooled-lo
+ * optimizer does (a sequence value {@code v} owns {@code [v, v + allocationSize)}), so both can share it.
+ */
+@Component
+public class ChatMessageIdAllocator {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String nextValueSql;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long nextId;
+    private long blockEnd;
+
+    public ChatMessageIdAllocator(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        Dialect dialect = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+        this.nextValueSql = dialect.getSequenceSupport().getSequenceNextValString(ChatMessage.ID_SEQUENCE);
+    }
+
+    public long nextId() {
+        lock.lock();
+        try {
+            if (nextId >= blockEnd) {
+                Long blockStart = jdbcTemplate.queryForObject(nextValueSql, Long.class);
+                if (blockStart == null) {
+                    throw new IllegalStateException("Sequence " + ChatMessage.ID_SEQUENCE + " returned no value");
+                }
+                nextId = blockStart;
+                blockEnd = blockStart + ChatMessage.ID_ALLOCATION_SIZE;
+            }
+            return nextId++;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.demo.service;
+
+import com.example.demo.model.ChatMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind persistence for chat messages. Accepted messages are queued in memory and inserted by a single
+ * flusher thread in multi-row JDBC batches, once {@code batch-size} messages are waiting or
+ * {@code flush-interval-ms} has passed. Producers block for at most {@code offer-timeout-ms} when the queue is
+ * full and then get an exception, so a slow database pushes back on senders instead of growing the heap.
+ * <p>
+ * Each queued message comes with a future that completes once its row is committed, or exceptionally if it is
+ * dropped. Futures are completed on the flusher thread, so their callbacks must not block.
+ */
+@Service
+@ConditionalOnProperty(name = "chat.persistence.write-behind.enabled", havingValue = "true")
+public class ChatMessageWriteBehindQueue implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatMessageWriteBehindQueue.class);
+
+    private static final String INSERT_SQL = "INSERT INTO chat_messages "
+            + "(id, content, timestamp, sender_id, receiver_id, chat_room_id, seq, conversation_key) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<Pending> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long offerTimeoutMs;
+
+    private volatile boolean running;
+    private Thread flusher;
+
+    public ChatMessageWriteBehindQueue(JdbcTemplate jdbcTemplate,
+                                       PlatformTransactionManager transactionManager,
+                                       @Value("${chat.persistence.write-behind.queue-capacity:10000}") int queueCapacity,
+                                       @Value("${chat.persistence.write-behind.batch-size:500}") int batchSize,
+                                       @Value("${chat.persistence.write-behind.flush-interval-ms:50}") long flushIntervalMs,
+                                       @Value("${chat.persistence.write-behind.offer-timeout-ms:250}") long offerTimeoutMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.offerTimeoutMs = offerTimeoutMs;
+    }
+
+    private record Pending(ChatMessage message, CompletableFuture<ChatMessage> persisted) {
+    }
+
+    /**
+     * Queues a message whose id has already been assigned.
+     *
+     * @return a future completed with the message once it is stored
+     * @throws IllegalStateException if the queue stays full for longer than the offer timeout
+     */
+    public CompletableFuture<ChatMessage> enqueue(ChatMessage chatMessage) {
+        if (chatMessage.getId() == null) {
+            throw new IllegalArgumentException("Write-behind messages need a pre-assigned id");
+        }
+        Pending pending = new Pending(chatMessage, new CompletableFuture<>());
+        try {
+            if (!queue.offer(pending, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Message persistence queue is full, try again later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing message", e);
+        }
+        return pending.persisted();
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        flusher = new Thread(this::runFlushLoop, "chat-write-behind");
+        flusher.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            logger.warn("Write-behind flusher stopped with {} messages still queued", queue.size());
+            List<Pending> unflushed = new ArrayList<>();
+            queue.drainTo(unflushed);
+            unflushed.forEach(pending -> pending.persisted().completeExceptionally(
+                    new IllegalStateException("Message persistence stopped before the message was stored")));
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Stop after the web server and message broker so in-flight sends can still be queued and flushed.
+    @Override
+    public int getPhase() {
+        return Integer.MIN_VALUE + 1000;
+    }
+
+    private void runFlushLoop() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                // Keep draining: interruption only happens at shutdown and the queue must still be flushed.
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void collectBatch(List<Pending> batch) throws InterruptedException {
+        Pending first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        List<ChatMessage> messages = batch.stream().map(Pending::message).toList();
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    jdbcTemplate.batchUpdate(INSERT_SQL, messages, messages.size(), ChatMessageWriteBehindQueue::bind));
+        } catch (RuntimeException e) {
+            logger.warn("Batch insert of {} messages failed, retrying one by one", batch.size(), e);
+            batch.forEach(this::insertSingle);
+            return;
+        }
+        batch.forEach(pending -> pending.persisted().complete(pending.message()));
+    }
+
+    private void insertSingle(Pending pending) {
+        ChatMessage message = pending.message();
+        try {
+            jdbcTemplate.update(INSERT_SQL, ps -> bind(ps, message));
+        } catch (RuntimeException e) {
+            logger.error("Dropping message {} that could not be persisted", message.getId(), e);
+            pending.persisted().completeExceptionally(e);
+            return;
+        }
+        pending.persisted().complete(message);
+    }
+
+    private static void bind(PreparedStatement ps, ChatMessage message) throws SQLException {
+        ps.setLong(1, message.getId());
+        ps.setString(2, message.getContent());
+        ps.setTimestamp(3, Timestamp.valueOf(message.getTimestamp()));
+        ps.setLong(4, message.getSender().getId());
+        if (message.getReceiver() != null) {
+            ps.setLong(5, message.getReceiver().getId());
+            ps.setString(8, ChatMessage.conversationKey(message.getSender().getId(), message.getReceiver().getId()));
+        } else {
+            ps.setNull(5, Types.BIGINT);
+            ps.setNull(8, Types.VARCHAR);
+        }
+        if (message.getChatRoom() != null) {
+            ps.setLong(6, message.getChatRoom().getId());
+        } else {
+            ps.setNull(6, Types.BIGINT);
+        }
+        if (message.getSeq() != null) {
+            ps.setLong(7, message.getSeq());
+        } else {
+            ps.setNull(7, Types.BIGINT);
+        }
+    }
+}
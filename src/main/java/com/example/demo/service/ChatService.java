@@ -1,53 +1,377 @@
 package com.example.demo.service;
 
+import com.example.demo.archive.ArchivedMessage;
+import com.example.demo.archive.MessageArchive;
+import com.example.demo.dto.ChatMessageDto;
+import com.example.demo.dto.ChatMessagePage;
+import com.example.demo.dto.MessageCursor;
+import com.example.demo.dto.MessageSearchPage;
 import com.example.demo.model.ChatMessage;
 import com.example.demo.model.ChatRoom;
 import com.example.demo.model.User;
 import com.example.demo.repository.ChatMessageRepository;
 import com.example.demo.repository.ChatRoomRepository;
+import com.example.demo.search.MessageSearchIndex;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @Transactional
 public class ChatService {
 
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    public static final int MAX_PAGE_SIZE = 200;
+
     @Autowired
     private ChatMessageRepository chatMessageRepository;
 
     @Autowired
     private ChatRoomRepository chatRoomRepository;
 
+    @Autowired
+    private ChatMessageIdAllocator chatMessageIdAllocator;
+
+    @Autowired(required = false)
+    private ChatMessageWriteBehindQueue writeBehindQueue;
+
+    @Autowired
+    private ReadMarkerService readMarkerService;
+
+    @Autowired(required = false)
+    private MessageSearchIndex searchIndex;
+
+    @Autowired
+    private RecentMessageCache recentMessageCache;
+
+    @Autowired
+    private MessageSequencer messageSequencer;
+
+    @Autowired(required = false)
+    private MessageArchive messageArchive;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private DirectRoomCache directRoomCache;
+
+    /**
+     * A message with its id and sequence number assigned, and a future completed once it is stored for good.
+     */
+    public record AcceptedMessage(ChatMessage message, CompletableFuture<ChatMessage> persisted) {
+    }
+
+    /**
+     * Stores a message. With write-behind enabled the message only gets an id and is queued for a batched insert,
+     * so this method then runs without a transaction of its own.
+     */
+    @Timed(value = "chat.message.send", description = "Time to accept and store one chat message", histogram = true)
+    @Transactional(propagation = Propagation.SUPPORTS)
     public ChatMessage sendMessage(String content, User sender, User receiver, Long chatRoomId) {
+        return acceptMessage(content, sender, receiver, chatRoomId).message();
+    }
+
+    /**
+     * Like {@link #sendMessage}, but also tells when the message is stored. With write-behind enabled that happens
+     * after this method returns, and a message that cannot be inserted is taken out of the recent message cache
+     * and the search index again before its future fails. Otherwise the future completes when the surrounding
+     * transaction commits, or right away without one.
+     */
+    @Timed(value = "chat.message.send", description = "Time to accept and store one chat message", histogram = true)
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public AcceptedMessage acceptMessage(String content, User sender, User receiver, Long chatRoomId) {
         ChatMessage chatMessage = new ChatMessage();
         chatMessage.setContent(content);
         chatMessage.setSender(sender);
         chatMessage.setReceiver(receiver);
+
+        if (writeBehindQueue != null) {
+            chatMessage.setId(chatMessageIdAllocator.nextId());
+            if (chatRoomId != null) {
+                chatMessage.setChatRoom(chatRoomRepository.getReferenceById(chatRoomId));
+            }
+            messageSequencer.assign(chatMessage);
+            CompletableFuture<ChatMessage> persisted;
+            try {
+                persisted = writeBehindQueue.enqueue(chatMessage);
+            } catch (RuntimeException e) {
+                messageSequencer.release(chatMessage);
+                throw e;
+            }
+            publishWhenCommitted(chatMessage);
+            persisted.whenComplete((stored, failure) -> {
+                if (failure != null) {
+                    recentMessageCache.remove(toDto(chatMessage));
+                    if (searchIndex != null) {
+                        searchIndex.delete(List.of(chatMessage.getId()));
+                    }
+                } else {
+                    readMarkerService.messageSent(chatMessage);
+                }
+            });
+            return new AcceptedMessage(chatMessage, persisted);
+        }
         
         if (chatRoomId != null) {
             Optional<ChatRoom> chatRoom = chatRoomRepository.findById(chatRoomId);
             chatRoom.ifPresent(chatMessage::setChatRoom);
         }
+        messageSequencer.assign(chatMessage);
         
-        return chatMessageRepository.save(chatMessage);
+        ChatMessage saved;
+        try {
+            saved = chatMessageRepository.save(chatMessage);
+        } catch (RuntimeException e) {
+            messageSequencer.release(chatMessage);
+            throw e;
+        }
+        CompletableFuture<ChatMessage> committed = publishWhenCommitted(saved);
+        // Runs in the after-commit callback, so a rolled back message is never counted as unread.
+        committed.thenAccept(readMarkerService::messageSent);
+        return new AcceptedMessage(saved, committed);
+    }
+
+    // Write-behind messages are published when accepted; search results skip them until they are inserted.
+    // The returned future completes once the surrounding transaction, if any, has committed.
+    private CompletableFuture<ChatMessage> publishWhenCommitted(ChatMessage chatMessage) {
+        CompletableFuture<ChatMessage> committed = new CompletableFuture<>();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish(chatMessage);
+                    committed.complete(chatMessage);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        committed.completeExceptionally(new IllegalStateException(
+                                "Transaction storing message " + chatMessage.getId() + " did not commit"));
+                    }
+                }
+            });
+        } else {
+            publish(chatMessage);
+            committed.complete(chatMessage);
+        }
+        return committed;
+    }
+
+    private void publish(ChatMessage chatMessage) {
+        recentMessageCache.append(toDto(chatMessage));
+        if (searchIndex != null) {
+            searchIndex.index(chatMessage);
+        }
+    }
+
+    private ChatMessageDto toDto(ChatMessage chatMessage) {
+        User receiver = chatMessage.getReceiver();
+        ChatRoom chatRoom = chatMessage.getChatRoom();
+        return new ChatMessageDto(chatMessage.getId(), chatMessage.getContent(),
+                chatMessage.getTimestamp(), chatMessage.getSender().getId(), chatMessage.getSender().getName(),
+                receiver != null ? receiver.getId() : null, receiver != null ? receiver.getName() : null,
+                chatRoom != null ? chatRoom.getId() : null, chatMessage.getSeq());
+    }
+
+    /**
+     * Full-text search over the messages {@code userId} can see: their direct conversations and the rooms they
+     * take part in, optionally narrowed to one room or to the conversation with {@code peerId}.
+     */
+    @Transactional(readOnly = true)
+    public MessageSearchPage searchMessages(Long userId, String query, Long chatRoomId, Long peerId, int page, int size) {
+        if (searchIndex == null) {
+            throw new IllegalStateException("Message search is disabled");
+        }
+        List<Long> roomIds = chatRoomRepository.findIdsByParticipantId(userId);
+        if (chatRoomId != null && !roomIds.contains(chatRoomId)) {
+            throw new IllegalArgumentException("User " + userId + " is not in chat room " + chatRoomId);
+        }
+        MessageSearchIndex.SearchHits hits;
+        try {
+            hits = searchIndex.search(query, userId, roomIds, chatRoomId, peerId, page, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Map<Long, ChatMessageDto> found = hits.messageIds().isEmpty() ? Map.of()
+                : chatMessageRepository.findDtosByIdIn(hits.messageIds()).stream()
+                        .collect(Collectors.toMap(ChatMessageDto::getId, Function.identity()));
+        List<ChatMessageDto> messages = hits.messageIds().stream()
+                .map(found::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        return new MessageSearchPage(messages, hits.totalHits(), page, size);
     }
 
+    /**
+     * @deprecated loads the whole conversation; use {@link #getConversationPage} instead.
+     */
+    @Deprecated
     public List<ChatMessage> getConversationBetweenUsers(Long user1Id, Long user2Id) {
-        User user1 = new User();
-        user1.setId(user1Id);
-        User user2 = new User();
-        user2.setId(user2Id);
-        
-        return chatMessageRepository.findConversationBetweenUsers(user1, user2);
+        List<ChatMessage> stored = chatMessageRepository.findConversationBetweenUsers(
+                ChatMessage.conversationKey(user1Id, user2Id));
+        return withArchived(MessageArchive.directKey(user1Id, user2Id), stored);
     }
 
+    /**
+     * @deprecated loads the whole room history; use {@link #getChatRoomMessagesPage} instead.
+     */
+    @Deprecated
     public List<ChatMessage> getChatRoomMessages(Long chatRoomId) {
-        return chatMessageRepository.findByChatRoom_IdOrderByTimestampAsc(chatRoomId);
+        List<ChatMessage> stored = chatMessageRepository.findByChatRoom_IdOrderByTimestampAsc(chatRoomId);
+        return withArchived(MessageArchive.roomKey(chatRoomId), stored);
+    }
+
+    // Archived messages are older than the stored ones; a message being archived right now may be in both.
+    private List<ChatMessage> withArchived(String archiveKey, List<ChatMessage> stored) {
+        if (messageArchive == null) {
+            return stored;
+        }
+        List<ArchivedMessage> archived;
+        try {
+            archived = messageArchive.readAll(archiveKey);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ChatMessage oldestStored = stored.isEmpty() ? null : stored.get(0);
+        List<ChatMessage> messages = new ArrayList<>(archived.size() + stored.size());
+        archived.stream()
+                .filter(message -> oldestStored == null || isBefore(message, oldestStored))
+                .map(this::toChatMessage)
+                .forEach(messages::add);
+        messages.addAll(stored);
+        return messages;
+    }
+
+    /**
+     * Returns the page of room messages immediately older than {@code cursor} (or the newest page when
+     * {@code cursor} is null), in chronological order. The newest page usually comes from
+     * {@link RecentMessageCache}, so this runs without a transaction of its own.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public ChatMessagePage getChatRoomMessagesPage(Long chatRoomId, MessageCursor cursor, int size) {
+        Pageable pageable = pageRequest(size);
+        List<ChatMessageDto> rows = cursor == null
+                ? recentMessageCache.latestRoomMessages(chatRoomId, pageable.getPageSize(),
+                        () -> withArchived(MessageArchive.roomKey(chatRoomId), null,
+                                chatMessageRepository.findLatestChatRoomMessages(chatRoomId, pageable), pageable))
+                : withArchived(MessageArchive.roomKey(chatRoomId), cursor,
+                        chatMessageRepository.findChatRoomMessagesBefore(
+                                chatRoomId, cursor.timestamp(), cursor.id(), pageable), pageable);
+        return toPage(rows, pageable.getPageSize() - 1);
+    }
+
+    /**
+     * Returns the page of direct messages between two users immediately older than {@code cursor} (or the
+     * newest page when {@code cursor} is null), in chronological order, like {@link #getChatRoomMessagesPage}.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public ChatMessagePage getConversationPage(Long user1Id, Long user2Id, MessageCursor cursor, int size) {
+        Pageable pageable = pageRequest(size);
+        String conversationKey = ChatMessage.conversationKey(user1Id, user2Id);
+        List<ChatMessageDto> rows = cursor == null
+                ? recentMessageCache.latestConversationMessages(user1Id, user2Id, pageable.getPageSize(),
+                        () -> withArchived(MessageArchive.directKey(user1Id, user2Id), null,
+                                chatMessageRepository.findLatestConversationMessages(conversationKey, pageable),
+                                pageable))
+                : withArchived(MessageArchive.directKey(user1Id, user2Id), cursor,
+                        chatMessageRepository.findConversationMessagesBefore(
+                                conversationKey, cursor.timestamp(), cursor.id(), pageable), pageable);
+        return toPage(rows, pageable.getPageSize() - 1);
+    }
+
+    // Continues a newest-first page that ran out of stored rows with archived messages older than its last row.
+    private List<ChatMessageDto> withArchived(String archiveKey, MessageCursor cursor, List<ChatMessageDto> newestFirst,
+                                              Pageable pageable) {
+        int missing = pageable.getPageSize() - newestFirst.size();
+        if (messageArchive == null || missing <= 0) {
+            return newestFirst;
+        }
+        ChatMessageDto oldest = newestFirst.isEmpty() ? null : newestFirst.get(newestFirst.size() - 1);
+        if (oldest != null) {
+            cursor = MessageCursor.of(oldest);
+        }
+        List<ArchivedMessage> archived;
+        try {
+            archived = cursor != null
+                    ? messageArchive.readBefore(archiveKey, cursor.timestamp(), cursor.id(), missing)
+                    : messageArchive.readBefore(archiveKey, null, null, missing);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (archived.isEmpty()) {
+            return newestFirst;
+        }
+        List<ChatMessageDto> rows = new ArrayList<>(newestFirst);
+        archived.stream().map(this::toDto).forEach(rows::add);
+        return rows;
+    }
+
+    private static boolean isBefore(ArchivedMessage archived, ChatMessage stored) {
+        int byTime = archived.timestamp().compareTo(stored.getTimestamp());
+        return byTime < 0 || (byTime == 0 && archived.id() < stored.getId());
+    }
+
+    private ChatMessage toChatMessage(ArchivedMessage archived) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.setId(archived.id());
+        chatMessage.setContent(archived.content());
+        chatMessage.setTimestamp(archived.timestamp());
+        chatMessage.setSeq(archived.seq());
+        chatMessage.setSender(userService.getUserSnapshot(archived.senderId()).toReference());
+        if (archived.receiverId() != null) {
+            chatMessage.setReceiver(userService.getUserSnapshot(archived.receiverId()).toReference());
+        }
+        if (archived.chatRoomId() != null) {
+            ChatRoom chatRoom = new ChatRoom();
+            chatRoom.setId(archived.chatRoomId());
+            chatMessage.setChatRoom(chatRoom);
+        }
+        return chatMessage;
+    }
+
+    private ChatMessageDto toDto(ArchivedMessage archived) {
+        return new ChatMessageDto(archived.id(), archived.content(), archived.timestamp(),
+                archived.senderId(), userService.getUserSnapshot(archived.senderId()).name(),
+                archived.receiverId(),
+                archived.receiverId() != null ? userService.getUserSnapshot(archived.receiverId()).name() : null,
+                archived.chatRoomId(), archived.seq());
+    }
+
+    // Fetches one extra row so the caller can tell whether older messages exist without a COUNT query.
+    private Pageable pageRequest(int size) {
+        int boundedSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        return PageRequest.of(0, boundedSize + 1);
+    }
+
+    private ChatMessagePage toPage(List<ChatMessageDto> newestFirst, int size) {
+        boolean hasMore = newestFirst.size() > size;
+        List<ChatMessageDto> messages = new ArrayList<>(hasMore ? newestFirst.subList(0, size) : newestFirst);
+        String nextCursor = hasMore ? MessageCursor.of(messages.get(messages.size() - 1)).encode() : null;
+        Collections.reverse(messages);
+        return new ChatMessagePage(messages, nextCursor, hasMore);
     }
 
     public ChatRoom createChatRoom(String name, String description, List<User> participants) {
@@ -57,17 +381,38 @@ public class ChatService {
             participants.forEach(chatRoom::addParticipant);
         }
         
-        return chatRoomRepository.save(chatRoom);
+        ChatRoom saved = chatRoomRepository.save(chatRoom);
+        saved.getParticipants().forEach(user -> readMarkerService.roomJoined(saved.getId(), user.getId()));
+        return saved;
     }
 
-    public ChatRoom createDirectChatRoom(User user1, User user2) {
+    /**
+     * Returns the direct room of two users, creating it if they have none yet. The unique pair constraint rejects
+     * all but the first of concurrent creations for the same pair with a {@link DataIntegrityViolationException},
+     * after which {@link #findDirectChatRoom} returns the room that won.
+     */
+    public ChatRoom getOrCreateDirectChatRoom(User user1, User user2) {
+        Optional<ChatRoom> existing = findDirectChatRoom(user1.getId(), user2.getId());
+        if (existing.isPresent()) {
+            return existing.get();
+        }
         String roomName = "Direct: " + user1.getName() + " & " + user2.getName();
         ChatRoom chatRoom = new ChatRoom(roomName, "Direct chat between " + user1.getName() + " and " + user2.getName());
         
         chatRoom.addParticipant(user1);
         chatRoom.addParticipant(user2);
+        chatRoom.setDirectUsers(user1.getId(), user2.getId());
         
-        return chatRoomRepository.save(chatRoom);
+        ChatRoom saved = chatRoomRepository.saveAndFlush(chatRoom);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                directRoomCache.put(user1.getId(), user2.getId(), saved.getId());
+            }
+        });
+        readMarkerService.roomJoined(saved.getId(), user1.getId());
+        readMarkerService.roomJoined(saved.getId(), user2.getId());
+        return saved;
     }
 
     public List<ChatRoom> getUserChatRooms(Long userId) {
@@ -82,6 +427,7 @@ public class ChatService {
         if (chatRoom.isPresent()) {
             chatRoom.get().addParticipant(user);
             chatRoomRepository.save(chatRoom.get());
+            readMarkerService.roomJoined(chatRoomId, user.getId());
         }
     }
 
@@ -90,29 +436,33 @@ public class ChatService {
         if (chatRoom.isPresent()) {
             chatRoom.get().removeParticipant(user);
             chatRoomRepository.save(chatRoom.get());
+            readMarkerService.roomLeft(chatRoomId, user.getId());
         }
     }
 
+    /**
+     * @deprecated counts with a query per call from a client-supplied timestamp; use
+     * {@link ReadMarkerService#getUnreadCounts} instead.
+     */
+    @Deprecated
     public long getUnreadMessageCount(Long senderId, Long receiverId, LocalDateTime since) {
         User sender = new User();
         sender.setId(senderId);
-        User receiver = new User();
-        receiver.setId(receiverId);
         
-        return chatMessageRepository.countUnreadMessages(sender, receiver, since);
+        return chatMessageRepository.countUnreadMessages(
+                ChatMessage.conversationKey(senderId, receiverId), sender, since);
     }
 
     public List<ChatMessage> getRecentMessages(LocalDateTime since) {
         return chatMessageRepository.findMessagesSince(since);
     }
 
+    /**
+     * Looks up the direct room of two users, in either order, by its cached id or the unique pair constraint.
+     */
     public Optional<ChatRoom> findDirectChatRoom(Long user1Id, Long user2Id) {
-        User user1 = new User();
-        user1.setId(user1Id);
-        User user2 = new User();
-        user2.setId(user2Id);
-        
-        List<ChatRoom> rooms = chatRoomRepository.findDirectChatRoomsBetweenUsers(user1, user2);
-        return rooms.isEmpty() ? Optional.empty() : Optional.of(rooms.get(0));
+        return directRoomCache.get(user1Id, user2Id, () -> chatRoomRepository.findDirectChatRoomId(
+                        Math.min(user1Id, user2Id), Math.max(user1Id, user2Id)))
+                .flatMap(chatRoomRepository::findById);
     }
-}
\ No newline at end of file
+}
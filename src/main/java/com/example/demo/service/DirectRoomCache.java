@@ -0,0 +1,93 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of direct chat room ids by user pair, in least-recently-used order once {@code max-size} is
+ * reached. A pair's direct room never changes once created, so entries do not expire; pairs without a room are
+ * not cached.
+ */
+@Component
+public class DirectRoomCache {
+
+    public record Stats(long hits, long misses, long evictions, int size) {
+    }
+
+    private record Pair(long userAId, long userBId) {
+    }
+
+    private final int maxSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Pair, Long> roomIds;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DirectRoomCache(@Value("${chat.direct-room-cache.max-size:100000}") int maxSize) {
+        this.maxSize = maxSize;
+        this.roomIds = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Pair, Long> eldest) {
+                if (size() <= DirectRoomCache.this.maxSize) {
+                    return false;
+                }
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the id of the direct room of two users, in either order, loading it with {@code loader} if it is not
+     * cached.
+     */
+    public Optional<Long> get(Long user1Id, Long user2Id, Supplier<Optional<Long>> loader) {
+        Pair pair = new Pair(Math.min(user1Id, user2Id), Math.max(user1Id, user2Id));
+        lock.lock();
+        try {
+            Long cached = roomIds.get(pair);
+            if (cached != null) {
+                hits.increment();
+                return Optional.of(cached);
+            }
+            misses.increment();
+        } finally {
+            lock.unlock();
+        }
+        Optional<Long> loaded = loader.get();
+        loaded.ifPresent(roomId -> put(pair, roomId));
+        return loaded;
+    }
+
+    public void put(Long user1Id, Long user2Id, Long roomId) {
+        put(new Pair(Math.min(user1Id, user2Id), Math.max(user1Id, user2Id)), roomId);
+    }
+
+    private void put(Pair pair, Long roomId) {
+        lock.lock();
+        try {
+            roomIds.put(pair, roomId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats getStats() {
+        lock.lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), roomIds.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
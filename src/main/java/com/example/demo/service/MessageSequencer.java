@@ -0,0 +1,250 @@
+package com.example.demo.service;
+
+import com.example.demo.archive.MessageArchive;
+import com.example.demo.model.ChatMessage;
+import com.example.demo.repository.ChatMessageRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Numbers messages per chat room and per direct conversation, so a reconnecting client can ask for the messages
+ * after the last number it saw. Room messages use the room's sequence and messages with only a receiver use the
+ * conversation's; a sequence continues from the highest stored or archived number the first time it is used.
+ * <p>
+ * The timestamp is assigned together with the number and strictly increases within a sequence, so a conversation
+ * ordered by timestamp is also ordered by number. Numbers are handed out before the message is stored, so messages
+ * may be stored and delivered out of number order, and a message that is never stored leaves a gap.
+ * <p>
+ * A single node keeps its sequences in memory and drops the ones idle for {@code idle-ms}. With clustering enabled
+ * every node numbers the same conversations, so the sequences live in the shared database instead and each number
+ * is taken under the conversation's row lock.
+ */
+@Component
+public class MessageSequencer {
+
+    private static final String SELECT_SQL = "SELECT last_seq, last_timestamp FROM conversation_sequences "
+            + "WHERE sequence_key = ? FOR UPDATE";
+
+    private static final String UPDATE_SQL = "UPDATE conversation_sequences SET last_seq = ?, last_timestamp = ? "
+            + "WHERE sequence_key = ?";
+
+    private static final String INSERT_SQL = "INSERT INTO conversation_sequences (sequence_key, last_seq) VALUES (?, ?)";
+
+    private static final String RELEASE_SQL = "UPDATE conversation_sequences SET last_seq = last_seq - 1 "
+            + "WHERE sequence_key = ? AND last_seq = ?";
+
+    private record Key(Long chatRoomId, long user1Id, long user2Id) {
+
+        String sequenceKey() {
+            return chatRoomId != null ? "room:" + chatRoomId : ChatMessage.conversationKey(user1Id, user2Id);
+        }
+    }
+
+    private static final class Sequence {
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean loaded;
+        private long last;
+        private LocalDateTime lastTimestamp;
+        private volatile long lastUsedMillis;
+        // Set when the sequence is removed from the map; callers that still hold it look it up again.
+        private boolean evicted;
+    }
+
+    private record Position(long last, LocalDateTime lastTimestamp) {
+    }
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final ObjectProvider<MessageArchive> messageArchive;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean shared;
+    private final long idleMs;
+    private final Map<Key, Sequence> sequences = new ConcurrentHashMap<>();
+
+    public MessageSequencer(ChatMessageRepository chatMessageRepository, ObjectProvider<MessageArchive> messageArchive,
+                            JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                            @Value("${chat.cluster.enabled:false}") boolean shared,
+                            @Value("${chat.sequence.idle-ms:600000}") long idleMs) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.messageArchive = messageArchive;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // The row lock is held only while taking the number, not for the caller's whole transaction.
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.shared = shared;
+        this.idleMs = idleMs;
+    }
+
+    /**
+     * Sets the sequence number and timestamp of a message whose sender, receiver and chat room are set.
+     * Messages with neither a receiver nor a chat room are left unnumbered.
+     */
+    public void assign(ChatMessage message) {
+        Key key = keyOf(message);
+        if (key == null) {
+            return;
+        }
+        if (shared) {
+            assignShared(key, message);
+            return;
+        }
+        while (true) {
+            Sequence sequence = sequences.computeIfAbsent(key, k -> new Sequence());
+            sequence.lock.lock();
+            try {
+                if (sequence.evicted) {
+                    continue;
+                }
+                if (!sequence.loaded) {
+                    sequence.last = storedSeq(key);
+                    sequence.loaded = true;
+                }
+                LocalDateTime timestamp = nextTimestamp(sequence.lastTimestamp);
+                message.setSeq(++sequence.last);
+                message.setTimestamp(timestamp);
+                sequence.lastTimestamp = timestamp;
+                sequence.lastUsedMillis = System.currentTimeMillis();
+                return;
+            } finally {
+                sequence.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Gives back the number of a message that could not be stored, if no later number was handed out since.
+     * Otherwise the number stays a gap.
+     */
+    public void release(ChatMessage message) {
+        Key key = keyOf(message);
+        if (key == null || message.getSeq() == null) {
+            return;
+        }
+        if (shared) {
+            transactionTemplate.executeWithoutResult(status ->
+                    jdbcTemplate.update(RELEASE_SQL, key.sequenceKey(), message.getSeq()));
+            return;
+        }
+        Sequence sequence = sequences.get(key);
+        if (sequence == null) {
+            return;
+        }
+        sequence.lock.lock();
+        try {
+            if (!sequence.evicted && sequence.last == message.getSeq()) {
+                sequence.last--;
+            }
+        } finally {
+            sequence.lock.unlock();
+        }
+    }
+
+    // An idle sequence is reloaded from the database on its next use, long after its last message was stored.
+    @Scheduled(fixedDelayString = "${chat.sequence.evict-interval-ms:60000}")
+    public void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMs;
+        sequences.forEach((key, sequence) -> {
+            if (sequence.lastUsedMillis >= cutoff || !sequence.lock.tryLock()) {
+                return;
+            }
+            try {
+                if (sequence.lastUsedMillis < cutoff) {
+                    sequence.evicted = true;
+                    sequences.remove(key, sequence);
+                }
+            } finally {
+                sequence.lock.unlock();
+            }
+        });
+    }
+
+    private void assignShared(Key key, ChatMessage message) {
+        String sequenceKey = key.sequenceKey();
+        if (Boolean.TRUE.equals(transactionTemplate.execute(status -> nextShared(sequenceKey, message)))) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    jdbcTemplate.update(INSERT_SQL, sequenceKey, storedSeq(key)));
+        } catch (DuplicateKeyException e) {
+            // Another node started the sequence first.
+        }
+        transactionTemplate.execute(status -> nextShared(sequenceKey, message));
+    }
+
+    private boolean nextShared(String sequenceKey, ChatMessage message) {
+        List<Position> rows = jdbcTemplate.query(SELECT_SQL, (rs, rowNum) -> {
+            Timestamp lastTimestamp = rs.getTimestamp("last_timestamp");
+            return new Position(rs.getLong("last_seq"),
+                    lastTimestamp != null ? lastTimestamp.toLocalDateTime() : null);
+        }, sequenceKey);
+        if (rows.isEmpty()) {
+            return false;
+        }
+        Position position = rows.get(0);
+        LocalDateTime timestamp = nextTimestamp(position.lastTimestamp());
+        jdbcTemplate.update(UPDATE_SQL, position.last() + 1, Timestamp.valueOf(timestamp), sequenceKey);
+        message.setSeq(position.last() + 1);
+        message.setTimestamp(timestamp);
+        return true;
+    }
+
+    private static LocalDateTime nextTimestamp(LocalDateTime lastTimestamp) {
+        LocalDateTime timestamp = LocalDateTime.now();
+        if (lastTimestamp != null && !timestamp.isAfter(lastTimestamp)) {
+            // Microseconds survive the TIMESTAMP column, nanoseconds do not.
+            timestamp = lastTimestamp.plusNanos(1000);
+        }
+        return timestamp;
+    }
+
+    private static Key keyOf(ChatMessage message) {
+        if (message.getChatRoom() != null) {
+            return new Key(message.getChatRoom().getId(), 0, 0);
+        }
+        if (message.getReceiver() != null) {
+            long senderId = message.getSender().getId();
+            long receiverId = message.getReceiver().getId();
+            return new Key(null, Math.min(senderId, receiverId), Math.max(senderId, receiverId));
+        }
+        return null;
+    }
+
+    private long storedSeq(Key key) {
+        Long stored = key.chatRoomId() != null
+                ? chatMessageRepository.findMaxChatRoomSeq(key.chatRoomId())
+                : chatMessageRepository.findMaxDirectSeq(ChatMessage.conversationKey(key.user1Id(), key.user2Id()));
+        return Math.max(stored != null ? stored : 0, archivedSeq(key));
+    }
+
+    // The archive holds the numbers of conversations whose messages have all been moved out of the database.
+    private long archivedSeq(Key key) {
+        MessageArchive archive = messageArchive.getIfAvailable();
+        if (archive == null) {
+            return 0;
+        }
+        try {
+            return archive.lastSeq(key.chatRoomId() != null
+                    ? MessageArchive.roomKey(key.chatRoomId())
+                    : MessageArchive.directKey(key.user1Id(), key.user2Id()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.demo.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks which users are online from their WebSocket sessions. A user stays online while at least one of their
+ * sessions is open. Status changes are only recorded in memory; the latest change per user is written to the
+ * {@code users} table by a periodic batch flush, so reconnect storms cost one row update per user per interval.
+ */
+@Service
+public class PresenceRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(PresenceRegistry.class);
+
+    private static final String UPDATE_SQL = "UPDATE users SET online = ?, last_seen = ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<String, Long> sessionOwners = new ConcurrentHashMap<>();
+    private final Map<Long, Integer> sessionCounts = new ConcurrentHashMap<>();
+    private final Map<Long, PresenceChange> pendingChanges = new ConcurrentHashMap<>();
+
+    public PresenceRegistry(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Registers a session for a user. Registering the same session again has no effect.
+     *
+     * @return true if the user was offline before this session
+     */
+    public boolean sessionConnected(String sessionId, Long userId) {
+        if (sessionOwners.putIfAbsent(sessionId, userId) != null) {
+            return false;
+        }
+        // Status changes are recorded inside compute so they are ordered per user.
+        int sessions = sessionCounts.compute(userId, (id, count) -> {
+            if (count == null) {
+                pendingChanges.put(id, new PresenceChange(true, LocalDateTime.now()));
+                return 1;
+            }
+            return count + 1;
+        });
+        return sessions == 1;
+    }
+
+    /**
+     * Removes a session.
+     *
+     * @return the id of the session's user if this was their last open session
+     */
+    public Optional<Long> sessionDisconnected(String sessionId) {
+        Long userId = sessionOwners.remove(sessionId);
+        if (userId == null) {
+            return Optional.empty();
+        }
+        Integer remaining = sessionCounts.computeIfPresent(userId, (id, count) -> {
+            if (count > 1) {
+                return count - 1;
+            }
+            pendingChanges.put(id, new PresenceChange(false, LocalDateTime.now()));
+            return null;
+        });
+        return remaining == null ? Optional.of(userId) : Optional.empty();
+    }
+
+    public boolean isOnline(Long userId) {
+        return sessionCounts.containsKey(userId);
+    }
+
+    public Set<Long> getOnlineUserIds() {
+        return Set.copyOf(sessionCounts.keySet());
+    }
+
+    public int getOnlineUserCount() {
+        return sessionCounts.size();
+    }
+
+    public int getSessionCount() {
+        return sessionOwners.size();
+    }
+
+    @Scheduled(fixedDelayString = "${chat.presence.flush-interval-ms:5000}")
+    public void flush() {
+        if (pendingChanges.isEmpty()) {
+            return;
+        }
+        Map<Long, PresenceChange> batch = new HashMap<>();
+        for (Long userId : pendingChanges.keySet()) {
+            PresenceChange change = pendingChanges.remove(userId);
+            if (change != null) {
+                batch.put(userId, change);
+            }
+        }
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        batch.forEach((userId, change) -> rows.add(new Object[]{change.online(), Timestamp.valueOf(change.at()), userId}));
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, rows);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to persist presence for {} users, will retry", rows.size(), e);
+            // Newer changes recorded since the batch was taken win over the failed ones.
+            batch.forEach(pendingChanges::putIfAbsent);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        LocalDateTime now = LocalDateTime.now();
+        sessionCounts.keySet().forEach(userId -> pendingChanges.put(userId, new PresenceChange(false, now)));
+        flush();
+    }
+
+    private record PresenceChange(boolean online, LocalDateTime at) {
+    }
+}
@@ -0,0 +1,365 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.UnreadCounts;
+import com.example.demo.model.ChatMessage;
+import com.example.demo.model.ReadMarker.ConversationType;
+import com.example.demo.model.ReadMarkerId;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Unread message counts kept in memory on top of persisted read markers (the newest message a user has read per
+ * direct conversation or chat room). A user's counters are loaded with two grouped queries the first time they
+ * are needed and are then incremented as messages are stored, so reading them costs no query. Marker moves are
+ * only recorded in memory; the newest marker per conversation is merged into {@code read_markers} by a periodic
+ * batch flush.
+ * <p>
+ * Messages are compared by their sequence number within the conversation (see {@link MessageSequencer}), not by
+ * id: ids come from pooled blocks that several allocators reserve independently, so they do not follow send order.
+ * Sequence numbers are taken before messages are stored, so a message can also be stored after a newer one; one
+ * that arrives below what the load query already covered makes the conversation be counted again.
+ * <p>
+ * With clustering enabled, messages stored on other nodes never reach this node's counters, so every read loads
+ * them from the database again and marker moves are written straight away.
+ */
+@Service
+public class ReadMarkerService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadMarkerService.class);
+
+    private static final String MARKERS_SQL = "SELECT conversation_type, conversation_id, "
+            + "COALESCE(last_read_seq, 0) FROM read_markers WHERE user_id = ?";
+
+    private static final String DIRECT_UNREAD_SQL = "SELECT m.sender_id, COUNT(*), MAX(m.seq) FROM chat_messages m "
+            + "LEFT JOIN read_markers rm ON rm.user_id = m.receiver_id AND rm.conversation_type = 'DIRECT' "
+            + "AND rm.conversation_id = m.sender_id "
+            + "WHERE m.receiver_id = ? AND m.chat_room_id IS NULL AND m.seq > COALESCE(rm.last_read_seq, 0) "
+            + "GROUP BY m.sender_id";
+
+    // One row per room of the user, including rooms without unread messages.
+    private static final String ROOM_UNREAD_SQL = "SELECT p.chat_room_id, COUNT(m.id), COALESCE(MAX(m.seq), 0) "
+            + "FROM chat_room_participants p "
+            + "LEFT JOIN read_markers rm ON rm.user_id = p.user_id AND rm.conversation_type = 'ROOM' "
+            + "AND rm.conversation_id = p.chat_room_id "
+            + "LEFT JOIN chat_messages m ON m.chat_room_id = p.chat_room_id AND m.sender_id <> p.user_id "
+            + "AND m.seq > COALESCE(rm.last_read_seq, 0) "
+            + "WHERE p.user_id = ? GROUP BY p.chat_room_id";
+
+    private static final String COUNT_DIRECT_SQL = "SELECT COUNT(*), COALESCE(MAX(seq), 0) FROM chat_messages "
+            + "WHERE receiver_id = ? AND sender_id = ? AND chat_room_id IS NULL AND seq > ?";
+
+    private static final String COUNT_ROOM_SQL = "SELECT COUNT(*), COALESCE(MAX(seq), 0) FROM chat_messages "
+            + "WHERE sender_id <> ? AND chat_room_id = ? AND seq > ?";
+
+    private static final String SEQ_SQL = "SELECT seq FROM chat_messages WHERE id = ?";
+
+    private static final String MERGE_SQL = "MERGE INTO read_markers "
+            + "(user_id, conversation_type, conversation_id, last_read_message_id, last_read_seq, updated_at) "
+            + "KEY (user_id, conversation_type, conversation_id) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean shared;
+
+    private final Map<Long, UserCounters> users = new ConcurrentHashMap<>();
+    // Room id -> users with loaded counters who take part in the room.
+    private final Map<Long, Set<Long>> roomMembers = new ConcurrentHashMap<>();
+    private final Map<ReadMarkerId, PendingMarker> pendingMarkers = new ConcurrentHashMap<>();
+
+    public ReadMarkerService(JdbcTemplate jdbcTemplate, @Value("${chat.cluster.enabled:false}") boolean shared) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.shared = shared;
+    }
+
+    /**
+     * Returns every non-zero unread count of a user.
+     */
+    public UnreadCounts getUnreadCounts(Long userId) {
+        Map<Long, Long> direct = new TreeMap<>();
+        Map<Long, Long> rooms = new TreeMap<>();
+        long total = 0;
+        UserCounters counters = lockCounters(userId);
+        try {
+            for (Map.Entry<Conversation, Unread> entry : counters.conversations.entrySet()) {
+                long count = entry.getValue().count;
+                if (count > 0) {
+                    Conversation conversation = entry.getKey();
+                    (conversation.type() == ConversationType.ROOM ? rooms : direct).put(conversation.id(), count);
+                    total += count;
+                }
+            }
+        } finally {
+            counters.lock.unlock();
+        }
+        return new UnreadCounts(direct, rooms, total);
+    }
+
+    /**
+     * Moves a user's read marker in a conversation forward to the message {@code messageId}, whose sequence number
+     * is {@code seq} (looked up when null). Markers never move back.
+     *
+     * @return the number of messages in the conversation that are still unread
+     */
+    public long markRead(Long userId, ConversationType type, Long conversationId, Long messageId, Long seq) {
+        if (userId == null || type == null || conversationId == null || messageId == null) {
+            throw new IllegalArgumentException("A read marker needs a user, a conversation and a message id");
+        }
+        if (seq == null) {
+            seq = jdbcTemplate.query(SEQ_SQL, rs -> rs.next() ? (Long) rs.getObject(1, Long.class) : null, messageId);
+            if (seq == null) {
+                throw new IllegalArgumentException("Message " + messageId + " has no sequence number");
+            }
+        }
+        Conversation conversation = new Conversation(type, conversationId);
+        UserCounters counters = lockCounters(userId);
+        try {
+            Unread unread = counters.conversations.computeIfAbsent(conversation, c -> new Unread());
+            if (seq <= unread.lastReadSeq) {
+                return unread.count;
+            }
+            unread.lastReadSeq = seq;
+            if (seq >= unread.latestSeq) {
+                unread.count = 0;
+            } else {
+                // Read up to a message in the middle: the in-memory count cannot tell how many come after it.
+                unread.count = countAfter(userId, conversation, seq).count();
+            }
+            PendingMarker marker = new PendingMarker(messageId, seq, LocalDateTime.now());
+            if (shared) {
+                jdbcTemplate.update(MERGE_SQL, userId, type.name(), conversationId, messageId, seq,
+                        Timestamp.valueOf(marker.at()));
+            } else {
+                pendingMarkers.merge(new ReadMarkerId(userId, type, conversationId), marker, PendingMarker::newest);
+            }
+            return unread.count;
+        } finally {
+            counters.lock.unlock();
+        }
+    }
+
+    /**
+     * Counts a message as unread for the receiver of a direct message or the other members of its room. Must only
+     * be called once the message is stored for good, i.e. after its transaction or write-behind batch committed.
+     */
+    public void messageSent(ChatMessage message) {
+        if (shared || message.getSeq() == null || message.getSender() == null) {
+            return;
+        }
+        Long senderId = message.getSender().getId();
+        if (message.getChatRoom() != null) {
+            Long roomId = message.getChatRoom().getId();
+            Set<Long> members = roomMembers.get(roomId);
+            if (members != null) {
+                Conversation conversation = new Conversation(ConversationType.ROOM, roomId);
+                for (Long memberId : members) {
+                    if (!memberId.equals(senderId)) {
+                        increment(memberId, conversation, message.getSeq());
+                    }
+                }
+            }
+        } else if (message.getReceiver() != null) {
+            increment(message.getReceiver().getId(), new Conversation(ConversationType.DIRECT, senderId), message.getSeq());
+        }
+    }
+
+    public void roomJoined(Long roomId, Long userId) {
+        UserCounters counters = users.get(userId);
+        if (counters == null) {
+            return;
+        }
+        counters.lock.lock();
+        try {
+            if (!counters.loaded) {
+                return;
+            }
+            Conversation conversation = new Conversation(ConversationType.ROOM, roomId);
+            Unread unread = counters.conversations.computeIfAbsent(conversation, c -> new Unread());
+            Tally tally = countAfter(userId, conversation, unread.lastReadSeq);
+            unread.count = tally.count();
+            unread.latestSeq = tally.latestSeq();
+            unread.loadedUpTo = tally.latestSeq();
+            roomMembers.computeIfAbsent(roomId, id -> ConcurrentHashMap.newKeySet()).add(userId);
+        } finally {
+            counters.lock.unlock();
+        }
+    }
+
+    public void roomLeft(Long roomId, Long userId) {
+        Set<Long> members = roomMembers.get(roomId);
+        if (members != null) {
+            members.remove(userId);
+        }
+        UserCounters counters = users.get(userId);
+        if (counters == null) {
+            return;
+        }
+        counters.lock.lock();
+        try {
+            // Keep the marker in case the user rejoins; the room no longer counts towards their unread total.
+            Unread unread = counters.conversations.get(new Conversation(ConversationType.ROOM, roomId));
+            if (unread != null) {
+                unread.count = 0;
+            }
+        } finally {
+            counters.lock.unlock();
+        }
+    }
+
+    public int getPendingMarkerCount() {
+        return pendingMarkers.size();
+    }
+
+    public int getLoadedUserCount() {
+        return users.size();
+    }
+
+    @Scheduled(fixedDelayString = "${chat.read-markers.flush-interval-ms:1000}")
+    public void flush() {
+        if (pendingMarkers.isEmpty()) {
+            return;
+        }
+        Map<ReadMarkerId, PendingMarker> batch = new HashMap<>();
+        for (ReadMarkerId id : pendingMarkers.keySet()) {
+            PendingMarker marker = pendingMarkers.remove(id);
+            if (marker != null) {
+                batch.put(id, marker);
+            }
+        }
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        batch.forEach((id, marker) -> rows.add(new Object[]{id.getUserId(), id.getConversationType().name(),
+                id.getConversationId(), marker.messageId(), marker.seq(), Timestamp.valueOf(marker.at())}));
+        try {
+            jdbcTemplate.batchUpdate(MERGE_SQL, rows);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to persist {} read markers, will retry", rows.size(), e);
+            batch.forEach((id, marker) -> pendingMarkers.merge(id, marker, PendingMarker::newest));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private void increment(Long userId, Conversation conversation, long seq) {
+        UserCounters counters = users.get(userId);
+        if (counters == null) {
+            return;
+        }
+        counters.lock.lock();
+        try {
+            // Counters that are not loaded yet pick the message up from the database when they are.
+            if (!counters.loaded) {
+                return;
+            }
+            Unread unread = counters.conversations.computeIfAbsent(conversation, c -> new Unread());
+            if (seq <= unread.lastReadSeq) {
+                return;
+            }
+            if (seq <= unread.loadedUpTo) {
+                // Stored after the load ran, or counted by it: only the database can tell.
+                Tally tally = countAfter(userId, conversation, unread.lastReadSeq);
+                unread.loaded(tally.count(), tally.latestSeq());
+                return;
+            }
+            unread.count++;
+            unread.latestSeq = Math.max(unread.latestSeq, seq);
+        } finally {
+            counters.lock.unlock();
+        }
+    }
+
+    // Returns the user's counters locked, loading them first if needed.
+    private UserCounters lockCounters(Long userId) {
+        UserCounters counters = users.computeIfAbsent(userId, id -> new UserCounters());
+        counters.lock.lock();
+        if (!counters.loaded || shared) {
+            try {
+                load(userId, counters);
+            } catch (RuntimeException e) {
+                counters.lock.unlock();
+                throw e;
+            }
+            counters.loaded = true;
+        }
+        return counters;
+    }
+
+    private void load(Long userId, UserCounters counters) {
+        Map<Conversation, Unread> conversations = new HashMap<>();
+        jdbcTemplate.query(MARKERS_SQL, rs -> {
+            Conversation conversation = new Conversation(
+                    ConversationType.valueOf(rs.getString(1)), rs.getLong(2));
+            conversations.computeIfAbsent(conversation, c -> new Unread()).lastReadSeq = rs.getLong(3);
+        }, userId);
+        jdbcTemplate.query(DIRECT_UNREAD_SQL, rs -> {
+            Conversation conversation = new Conversation(ConversationType.DIRECT, rs.getLong(1));
+            conversations.computeIfAbsent(conversation, c -> new Unread()).loaded(rs.getLong(2), rs.getLong(3));
+        }, userId);
+        List<Long> roomIds = new ArrayList<>();
+        jdbcTemplate.query(ROOM_UNREAD_SQL, rs -> {
+            Conversation conversation = new Conversation(ConversationType.ROOM, rs.getLong(1));
+            conversations.computeIfAbsent(conversation, c -> new Unread()).loaded(rs.getLong(2), rs.getLong(3));
+            roomIds.add(conversation.id());
+        }, userId);
+        counters.conversations.clear();
+        counters.conversations.putAll(conversations);
+        roomIds.forEach(roomId -> roomMembers.computeIfAbsent(roomId, id -> ConcurrentHashMap.newKeySet()).add(userId));
+    }
+
+    private Tally countAfter(Long userId, Conversation conversation, long afterSeq) {
+        String sql = conversation.type() == ConversationType.ROOM ? COUNT_ROOM_SQL : COUNT_DIRECT_SQL;
+        Tally tally = jdbcTemplate.queryForObject(sql, (rs, rowNum) -> new Tally(rs.getLong(1), rs.getLong(2)),
+                userId, conversation.id(), afterSeq);
+        return tally != null ? tally : new Tally(0, 0);
+    }
+
+    private record Conversation(ConversationType type, long id) {
+    }
+
+    private record Tally(long count, long latestSeq) {
+    }
+
+    private record PendingMarker(long messageId, long seq, LocalDateTime at) {
+
+        static PendingMarker newest(PendingMarker a, PendingMarker b) {
+            return a.seq() >= b.seq() ? a : b;
+        }
+    }
+
+    private static final class UserCounters {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<Conversation, Unread> conversations = new HashMap<>();
+        private boolean loaded;
+    }
+
+    private static final class Unread {
+        private long count;
+        private long lastReadSeq;
+        // Newest message counted so far.
+        private long latestSeq;
+        // Newest message counted by the load query; increments at or below it were already counted there.
+        private long loadedUpTo;
+
+        void loaded(long count, long latestSeq) {
+            this.count = count;
+            this.latestSeq = latestSeq;
+            this.loadedUpTo = latestSeq;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.ChatMessageDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * The newest messages of each chat room and direct conversation, so the first history page of a chat is served
+ * without a query. Each conversation keeps up to {@code messages-per-conversation} messages; whole conversations
+ * are evicted in least-recently-used order while the estimated size exceeds {@code max-bytes}.
+ * <p>
+ * A conversation is only cached once a history read has loaded it from the database. Messages sent to it while
+ * that load runs are merged with the loaded rows, so the cached messages are always the newest ones, without gaps.
+ * That also makes the cache the replay log for clients resuming after a reconnect.
+ * <p>
+ * With clustering enabled the cache is bypassed: messages stored by other nodes never reach this node's cache, so
+ * it would serve pages and replays without them.
+ */
+@Component
+public class RecentMessageCache {
+
+    public record Stats(long hits, long misses, long evictions, int conversations, long bytes) {
+    }
+
+    private record Key(Long chatRoomId, long user1Id, long user2Id) {
+    }
+
+    private static final Comparator<ChatMessageDto> CHRONOLOGICAL = Comparator
+            .comparing(ChatMessageDto::getTimestamp, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ChatMessageDto::getId);
+
+    // Rough per-message overhead of the DTO, its boxed fields and the deque slot.
+    private static final int MESSAGE_OVERHEAD_BYTES = 200;
+
+    private final int capacity;
+    private final long maxBytes;
+    private final boolean enabled;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, Ring> rings = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public RecentMessageCache(@Value("${chat.history-cache.messages-per-conversation:128}") int capacity,
+                              @Value("${chat.history-cache.max-bytes:33554432}") long maxBytes,
+                              @Value("${chat.cluster.enabled:false}") boolean clustered) {
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.enabled = !clustered;
+    }
+
+    /**
+     * Returns the newest {@code count} messages of a room, newest first, loading them with {@code loader} (which
+     * must return them the same way) if they are not cached.
+     */
+    public List<ChatMessageDto> latestRoomMessages(Long chatRoomId, int count, Supplier<List<ChatMessageDto>> loader) {
+        return latest(new Key(chatRoomId, 0, 0), count, loader);
+    }
+
+    public List<ChatMessageDto> latestConversationMessages(Long user1Id, Long user2Id, int count,
+                                                           Supplier<List<ChatMessageDto>> loader) {
+        return latest(conversationKey(user1Id, user2Id), count, loader);
+    }
+
+    /**
+     * Returns the messages of a room numbered after {@code seq}, oldest first, or nothing if the room is not cached
+     * far enough back to be sure it has all of them.
+     */
+    public Optional<List<ChatMessageDto>> roomMessagesAfter(Long chatRoomId, long seq) {
+        return messagesAfter(new Key(chatRoomId, 0, 0), seq, false);
+    }
+
+    /**
+     * Like {@link #roomMessagesAfter}, for the messages numbered in the direct conversation of two users.
+     */
+    public Optional<List<ChatMessageDto>> directMessagesAfter(Long user1Id, Long user2Id, long seq) {
+        return messagesAfter(conversationKey(user1Id, user2Id), seq, true);
+    }
+
+    /**
+     * Adds a new message to its room and direct conversation, where those are cached. A message with both a room
+     * and a receiver shows up in both histories.
+     */
+    public void append(ChatMessageDto message) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (message.getChatRoomId() != null) {
+                append(new Key(message.getChatRoomId(), 0, 0), message);
+            }
+            if (message.getReceiverId() != null) {
+                append(conversationKey(message.getSenderId(), message.getReceiverId()), message);
+            }
+            evictOverBudget();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held.
+    private void append(Key key, ChatMessageDto message) {
+        Ring ring = rings.get(key);
+        if (ring != null) {
+            bytes += ring.add(message);
+        }
+    }
+
+    /**
+     * Takes back a message added with {@link #append} that turned out not to be stored.
+     */
+    public void remove(ChatMessageDto message) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (message.getChatRoomId() != null) {
+                remove(new Key(message.getChatRoomId(), 0, 0), message.getId());
+            }
+            if (message.getReceiverId() != null) {
+                remove(conversationKey(message.getSenderId(), message.getReceiverId()), message.getId());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held.
+    private void remove(Key key, Long messageId) {
+        Ring ring = rings.get(key);
+        if (ring != null) {
+            bytes += ring.remove(messageId);
+        }
+    }
+
+    public Stats getStats() {
+        lock.lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), rings.size(), bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<ChatMessageDto> latest(Key key, int count, Supplier<List<ChatMessageDto>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        Ring ring;
+        lock.lock();
+        try {
+            ring = rings.get(key);
+            if (ring != null && ring.canServe(count)) {
+                hits.increment();
+                return ring.newest(count);
+            }
+            misses.increment();
+            if (ring == null && count <= capacity) {
+                ring = new Ring();
+                rings.put(key, ring);
+            }
+        } finally {
+            lock.unlock();
+        }
+        List<ChatMessageDto> loaded = loader.get();
+        if (ring != null) {
+            lock.lock();
+            try {
+                // Skip conversations evicted while loading; they would no longer see new messages.
+                if (rings.get(key) == ring) {
+                    bytes += ring.fill(loaded, loaded.size() < count);
+                    evictOverBudget();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return loaded;
+    }
+
+    private Optional<List<ChatMessageDto>> messagesAfter(Key key, long seq, boolean direct) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        lock.lock();
+        try {
+            Ring ring = rings.get(key);
+            return ring != null ? ring.after(seq, direct) : Optional.empty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held.
+    private void evictOverBudget() {
+        Iterator<Ring> eldest = rings.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private static Key conversationKey(Long user1Id, Long user2Id) {
+        return new Key(null, Math.min(user1Id, user2Id), Math.max(user1Id, user2Id));
+    }
+
+    private static long estimateBytes(ChatMessageDto message) {
+        return MESSAGE_OVERHEAD_BYTES + 2L * (length(message.getContent())
+                + length(message.getSenderName()) + length(message.getReceiverName()));
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    // Guarded by the cache lock.
+    private final class Ring {
+        // Oldest first.
+        private final Deque<ChatMessageDto> messages = new ArrayDeque<>();
+        // Until the first load is merged, messages only collects what was sent meanwhile.
+        private boolean filled;
+        // Whether messages holds the whole conversation.
+        private boolean complete;
+        private long bytes;
+
+        boolean canServe(int count) {
+            return filled && (messages.size() >= count || complete);
+        }
+
+        List<ChatMessageDto> newest(int count) {
+            List<ChatMessageDto> newest = new ArrayList<>(Math.min(count, messages.size()));
+            Iterator<ChatMessageDto> iterator = messages.descendingIterator();
+            while (newest.size() < count && iterator.hasNext()) {
+                newest.add(iterator.next());
+            }
+            return newest;
+        }
+
+        // Relies on MessageSequencer numbering each sequence in timestamp order.
+        Optional<List<ChatMessageDto>> after(long seq, boolean direct) {
+            if (!filled) {
+                return Optional.empty();
+            }
+            List<ChatMessageDto> after = new ArrayList<>();
+            boolean reached = complete;
+            Iterator<ChatMessageDto> iterator = messages.descendingIterator();
+            while (iterator.hasNext()) {
+                ChatMessageDto message = iterator.next();
+                // A direct conversation also lists room messages with a receiver; those are numbered in the room.
+                if (direct && message.getChatRoomId() != null) {
+                    continue;
+                }
+                if (message.getSeq() == null || message.getSeq() <= seq) {
+                    reached = true;
+                    break;
+                }
+                after.add(message);
+            }
+            if (!reached) {
+                return Optional.empty();
+            }
+            Collections.reverse(after);
+            return Optional.of(after);
+        }
+
+        // Returns the change in size.
+        long add(ChatMessageDto message) {
+            long before = bytes;
+            ChatMessageDto last = messages.peekLast();
+            if (last == null || CHRONOLOGICAL.compare(last, message) < 0) {
+                messages.addLast(message);
+                bytes += estimateBytes(message);
+            } else {
+                merge(List.of(message));
+            }
+            trim();
+            return bytes - before;
+        }
+
+        // Returns the change in size.
+        long remove(Long messageId) {
+            long before = bytes;
+            messages.removeIf(message -> {
+                if (!messageId.equals(message.getId())) {
+                    return false;
+                }
+                bytes -= estimateBytes(message);
+                return true;
+            });
+            return bytes - before;
+        }
+
+        // Merges the newest rows from the database (newest first) with the messages sent while they were loaded.
+        long fill(List<ChatMessageDto> newestFirst, boolean wholeConversation) {
+            long before = bytes;
+            merge(newestFirst);
+            filled = true;
+            complete = wholeConversation;
+            trim();
+            return bytes - before;
+        }
+
+        private void merge(List<ChatMessageDto> additions) {
+            TreeSet<ChatMessageDto> merged = new TreeSet<>(CHRONOLOGICAL);
+            merged.addAll(messages);
+            merged.addAll(additions);
+            messages.clear();
+            messages.addAll(merged);
+            bytes = 0;
+            messages.forEach(message -> bytes += estimateBytes(message));
+        }
+
+        private void trim() {
+            while (messages.size() > capacity) {
+                bytes -= estimateBytes(messages.removeFirst());
+                complete = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.MessageCursor;
+import com.example.demo.dto.RoomSummary;
+import com.example.demo.dto.RoomSummaryPage;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A user's room list for the sidebar, most recently active room first, read with two queries per page whatever the
+ * number of rooms: one for the page of rooms with their newest message and one for the participants of those rooms.
+ * Unread counts come from the in-memory counters of {@link ReadMarkerService}.
+ */
+@Service
+public class RoomSummaryService {
+
+    private static final int PREVIEW_LENGTH = 100;
+
+    // A room's newest message is the first entry of its range of the (chat_room_id, timestamp, id) index.
+    private static final String ROOMS_SQL = "SELECT * FROM (SELECT r.id, r.name, r.description, r.direct_user_a_id, "
+            + "lm.id AS last_message_id, LEFT(lm.content, " + PREVIEW_LENGTH + ") AS last_message_preview, "
+            + "lm.sender_id AS last_message_sender_id, s.name AS last_message_sender_name, "
+            + "COALESCE(lm.timestamp, r.created_at) AS last_activity_at "
+            + "FROM chat_room_participants p JOIN chat_rooms r ON r.id = p.chat_room_id "
+            + "LEFT JOIN chat_messages lm ON lm.id = (SELECT m.id FROM chat_messages m WHERE m.chat_room_id = r.id "
+            + "ORDER BY m.chat_room_id, m.timestamp DESC, m.id DESC LIMIT 1) "
+            + "LEFT JOIN users s ON s.id = lm.sender_id "
+            + "WHERE p.user_id = ?) summaries ";
+
+    private static final String BEFORE_CURSOR = "WHERE last_activity_at <= ? "
+            + "AND (last_activity_at < ? OR id < ?) ";
+
+    private static final String MOST_RECENT_FIRST = "ORDER BY last_activity_at DESC, id DESC LIMIT ?";
+
+    private static final String PARTICIPANTS_SQL = "SELECT p.chat_room_id, u.id, u.name "
+            + "FROM chat_room_participants p JOIN users u ON u.id = p.user_id "
+            + "WHERE p.chat_room_id IN (%s) ORDER BY p.chat_room_id, u.id";
+
+    private record Row(Long id, String name, String description, boolean direct, Long lastMessageId,
+                       String lastMessagePreview, Long lastMessageSenderId, String lastMessageSenderName,
+                       LocalDateTime lastActivityAt) {
+    }
+
+    private record Participants(List<Long> ids, List<String> names) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ReadMarkerService readMarkerService;
+
+    public RoomSummaryService(JdbcTemplate jdbcTemplate, ReadMarkerService readMarkerService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readMarkerService = readMarkerService;
+    }
+
+    /**
+     * Returns the rooms of a user that were last active before {@code cursor}, or the most recently active rooms
+     * when it is null.
+     */
+    public RoomSummaryPage getRoomSummaries(Long userId, MessageCursor cursor, int size) {
+        int boundedSize = Math.max(1, Math.min(size, ChatService.MAX_PAGE_SIZE));
+        // One extra row tells whether another page follows.
+        List<Row> rows;
+        if (cursor == null) {
+            rows = jdbcTemplate.query(ROOMS_SQL + MOST_RECENT_FIRST, this::row, userId, boundedSize + 1);
+        } else {
+            Timestamp before = Timestamp.valueOf(cursor.timestamp());
+            rows = jdbcTemplate.query(ROOMS_SQL + BEFORE_CURSOR + MOST_RECENT_FIRST, this::row,
+                    userId, before, before, cursor.id(), boundedSize + 1);
+        }
+        boolean hasMore = rows.size() > boundedSize;
+        if (hasMore) {
+            rows = rows.subList(0, boundedSize);
+        }
+
+        Map<Long, Participants> participants = participants(rows);
+        Map<Long, Long> unread = readMarkerService.getUnreadCounts(userId).rooms();
+        List<RoomSummary> rooms = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            Participants roomParticipants = participants.getOrDefault(row.id(),
+                    new Participants(List.of(), List.of()));
+            rooms.add(new RoomSummary(row.id(), row.name(), row.description(), row.direct(),
+                    roomParticipants.ids(), roomParticipants.names(), row.lastMessageId(), row.lastMessagePreview(),
+                    row.lastMessageSenderId(), row.lastMessageSenderName(), row.lastActivityAt(),
+                    unread.getOrDefault(row.id(), 0L)));
+        }
+        String nextCursor = hasMore
+                ? new MessageCursor(rows.get(rows.size() - 1).lastActivityAt(), rows.get(rows.size() - 1).id()).encode()
+                : null;
+        return new RoomSummaryPage(rooms, nextCursor, hasMore);
+    }
+
+    private Map<Long, Participants> participants(List<Row> rows) {
+        if (rows.isEmpty()) {
+            return Map.of();
+        }
+        String placeholders = String.join(", ", Collections.nCopies(rows.size(), "?"));
+        Map<Long, Participants> participants = new HashMap<>();
+        jdbcTemplate.query(String.format(PARTICIPANTS_SQL, placeholders), rs -> {
+            Participants room = participants.computeIfAbsent(rs.getLong(1),
+                    id -> new Participants(new ArrayList<>(), new ArrayList<>()));
+            room.ids().add(rs.getLong(2));
+            room.names().add(rs.getString(3));
+        }, rows.stream().map(Row::id).toArray());
+        return participants;
+    }
+
+    private Row row(ResultSet rs, int rowNum) throws SQLException {
+        return new Row(rs.getLong("id"), rs.getString("name"), rs.getString("description"),
+                rs.getObject("direct_user_a_id") != null, rs.getObject("last_message_id", Long.class),
+                rs.getString("last_message_preview"), rs.getObject("last_message_sender_id", Long.class),
+                rs.getString("last_message_sender_name"), rs.getTimestamp("last_activity_at").toLocalDateTime());
+    }
+}
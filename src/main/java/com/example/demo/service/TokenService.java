@@ -0,0 +1,205 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and verifies short-lived signed access tokens, so API calls and WebSocket handshakes are authenticated
+ * without an HTTP session or a database lookup. Tokens are JWTs signed with HMAC-SHA256 and carry the user's
+ * email, id and roles.
+ * <p>
+ * {@code keys} lists {@code id:base64-secret} pairs. New tokens are signed with {@code active-key-id} (the last
+ * listed key by default) and name their key, and any listed key verifies them, so a key is rotated by adding its
+ * successor, making that active, and removing the old key once its tokens have expired. Without configured keys a
+ * random key is made at startup, and tokens are then only valid on this node until it restarts.
+ * <p>
+ * Revocations are kept in memory until the revoked tokens would have expired anyway, and only apply on this node.
+ */
+@Service
+@ConditionalOnProperty(name = "chat.auth.token.enabled", havingValue = "true")
+public class TokenService {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final int MIN_KEY_BYTES = 32;
+
+    private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder BASE64URL_DECODER = Base64.getUrlDecoder();
+
+    /**
+     * What a verified token says about its user.
+     */
+    public record Claims(String tokenId, String email, Long userId, List<String> roles, Instant issuedAt,
+                         Instant expiresAt) {
+    }
+
+    private record Header(String alg, String typ, String kid) {
+    }
+
+    private record Payload(String jti, String sub, Long uid, List<String> roles, long iat, long exp) {
+    }
+
+    private final ObjectMapper objectMapper;
+    private final Map<String, SecretKeySpec> keys;
+    private final String activeKeyId;
+    private final long ttlSeconds;
+
+    // Token id -> expiry (epoch seconds) of revoked tokens.
+    private final Map<String, Long> revokedTokens = new ConcurrentHashMap<>();
+    // User id -> epoch second up to which all of the user's tokens are revoked, and until when that matters.
+    private final Map<Long, UserRevocation> revokedUsers = new ConcurrentHashMap<>();
+
+    public TokenService(ObjectMapper objectMapper,
+                        @Value("${chat.auth.token.keys:}") String keys,
+                        @Value("${chat.auth.token.active-key-id:}") String activeKeyId,
+                        @Value("${chat.auth.token.ttl-seconds:900}") long ttlSeconds) {
+        this.objectMapper = objectMapper;
+        this.keys = parseKeys(keys);
+        if (this.keys.isEmpty()) {
+            byte[] secret = new byte[MIN_KEY_BYTES];
+            new SecureRandom().nextBytes(secret);
+            this.keys.put("generated", new SecretKeySpec(secret, ALGORITHM));
+        }
+        this.activeKeyId = activeKeyId.isBlank()
+                ? this.keys.keySet().stream().reduce((first, second) -> second).orElseThrow()
+                : activeKeyId;
+        if (!this.keys.containsKey(this.activeKeyId)) {
+            throw new IllegalArgumentException("Active token key " + this.activeKeyId + " is not listed in keys");
+        }
+        if (ttlSeconds < 1) {
+            throw new IllegalArgumentException("Token TTL must be positive");
+        }
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public String issue(String email, Long userId, List<String> roles) {
+        Instant now = Instant.now();
+        Payload payload = new Payload(UUID.randomUUID().toString(), email, userId, roles, now.getEpochSecond(),
+                now.getEpochSecond() + ttlSeconds);
+        try {
+            String signed = BASE64URL.encodeToString(objectMapper.writeValueAsBytes(new Header("HS256", "JWT", activeKeyId)))
+                    + "." + BASE64URL.encodeToString(objectMapper.writeValueAsBytes(payload));
+            return signed + "." + BASE64URL.encodeToString(sign(keys.get(activeKeyId), signed));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode token", e);
+        }
+    }
+
+    /**
+     * Returns the claims of a token that is well-formed, signed with a listed key, not expired and not revoked.
+     */
+    public Optional<Claims> verify(String token) {
+        int headerEnd = token.indexOf('.');
+        int payloadEnd = token.lastIndexOf('.');
+        if (headerEnd < 0 || payloadEnd <= headerEnd) {
+            return Optional.empty();
+        }
+        Header header;
+        Payload payload;
+        byte[] signature;
+        try {
+            header = objectMapper.readValue(BASE64URL_DECODER.decode(token.substring(0, headerEnd)), Header.class);
+            SecretKeySpec key = header.kid() != null ? keys.get(header.kid()) : null;
+            if (key == null || !"HS256".equals(header.alg())) {
+                return Optional.empty();
+            }
+            signature = BASE64URL_DECODER.decode(token.substring(payloadEnd + 1));
+            if (!MessageDigest.isEqual(signature, sign(key, token.substring(0, payloadEnd)))) {
+                return Optional.empty();
+            }
+            payload = objectMapper.readValue(BASE64URL_DECODER.decode(token.substring(headerEnd + 1, payloadEnd)),
+                    Payload.class);
+        } catch (IOException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        long now = Instant.now().getEpochSecond();
+        if (payload.exp() <= now || payload.sub() == null || revokedTokens.containsKey(payload.jti())) {
+            return Optional.empty();
+        }
+        UserRevocation userRevocation = payload.uid() != null ? revokedUsers.get(payload.uid()) : null;
+        if (userRevocation != null && payload.iat() <= userRevocation.issuedUntil()) {
+            return Optional.empty();
+        }
+        return Optional.of(new Claims(payload.jti(), payload.sub(), payload.uid(),
+                payload.roles() != null ? payload.roles() : List.of(), Instant.ofEpochSecond(payload.iat()),
+                Instant.ofEpochSecond(payload.exp())));
+    }
+
+    public void revoke(Claims claims) {
+        revokedTokens.put(claims.tokenId(), claims.expiresAt().getEpochSecond());
+    }
+
+    /**
+     * Revokes every token issued to a user so far, for instance because their email or roles changed.
+     */
+    public void revokeAll(Long userId) {
+        long now = Instant.now().getEpochSecond();
+        revokedUsers.put(userId, new UserRevocation(now, now + ttlSeconds));
+    }
+
+    /**
+     * Forgets revocations of tokens that have expired since.
+     */
+    @Scheduled(fixedDelayString = "${chat.auth.token.revocation-sweep-interval-ms:60000}")
+    public void evictExpiredRevocations() {
+        long now = Instant.now().getEpochSecond();
+        revokedTokens.values().removeIf(expiresAt -> expiresAt <= now);
+        revokedUsers.values().removeIf(revocation -> revocation.relevantUntil() <= now);
+    }
+
+    private static byte[] sign(SecretKeySpec key, String signed) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(signed.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot sign token", e);
+        }
+    }
+
+    private static Map<String, SecretKeySpec> parseKeys(String value) {
+        Map<String, SecretKeySpec> keys = new LinkedHashMap<>();
+        for (String entry : value.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid token key, expected id:base64-secret");
+            }
+            byte[] secret = Base64.getDecoder().decode(entry.substring(separator + 1).trim());
+            if (secret.length < MIN_KEY_BYTES) {
+                throw new IllegalArgumentException("Token key " + entry.substring(0, separator).trim()
+                        + " must be at least " + MIN_KEY_BYTES + " bytes");
+            }
+            keys.put(entry.substring(0, separator).trim(), new SecretKeySpec(secret, ALGORITHM));
+        }
+        return keys;
+    }
+
+    private record UserRevocation(long issuedUntil, long relevantUntil) {
+    }
+}
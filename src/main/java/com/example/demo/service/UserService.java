@@ -1,9 +1,11 @@
 package com.example.demo.service;
 
+import com.example.demo.dto.UserSnapshot;
 import com.example.demo.model.Role;
 import com.example.demo.model.User;
 import com.example.demo.repository.RoleRepository;
 import com.example.demo.repository.UserRepository;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
@@ -19,11 +21,19 @@ public class UserService {
     private final UserRepository userRepository;
     private final RoleRepository roleRepository;
     private final PasswordEncoder passwordEncoder;
+    private final PresenceRegistry presenceRegistry;
+    private final UserSnapshotCache snapshotCache;
+    private final ObjectProvider<TokenService> tokenService;
 
-    public UserService(UserRepository userRepository, RoleRepository roleRepository, PasswordEncoder passwordEncoder) {
+    public UserService(UserRepository userRepository, RoleRepository roleRepository, PasswordEncoder passwordEncoder,
+                       PresenceRegistry presenceRegistry, UserSnapshotCache snapshotCache,
+                       ObjectProvider<TokenService> tokenService) {
         this.userRepository = userRepository;
         this.roleRepository = roleRepository;
         this.passwordEncoder = passwordEncoder;
+        this.presenceRegistry = presenceRegistry;
+        this.snapshotCache = snapshotCache;
+        this.tokenService = tokenService;
     }
 
     public User findById(Long id) {
@@ -31,6 +41,21 @@ public class UserService {
                 .orElseThrow(() -> new RuntimeException("User not found with id: " + id));
     }
 
+    /**
+     * Cached, read-only view of a user for the messaging hot path; use {@link #findById} when the entity is needed.
+     */
+    public UserSnapshot getUserSnapshot(Long id) {
+        return snapshotCache.getById(id, () -> UserSnapshot.of(findById(id)));
+    }
+
+    public UserSnapshot getUserSnapshotByEmail(String email) {
+        return snapshotCache.getByEmail(email, () -> UserSnapshot.of(findByEmail(email)));
+    }
+
+    public UserSnapshotCache.Stats getSnapshotCacheStats() {
+        return snapshotCache.getStats();
+    }
+
     public Optional<User> getUserById(Long id) {
         return userRepository.findById(id);
     }
@@ -41,7 +66,10 @@ public class UserService {
     }
 
     public List<User> findAll() {
-        return userRepository.findAll();
+        List<User> users = userRepository.findAll();
+        // The online column is only flushed periodically; the registry has the live status.
+        users.forEach(user -> user.setOnline(presenceRegistry.isOnline(user.getId())));
+        return users;
     }
 
 
@@ -80,7 +108,11 @@ public class UserService {
             user.setRoles(userDetails.getRoles());
         }
 
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        snapshotCache.invalidate(id);
+        // Access tokens carry the email and roles.
+        tokenService.ifAvailable(tokens -> tokens.revokeAll(id));
+        return saved;
     }
 
     public void deleteById(Long id) {
@@ -88,6 +120,8 @@ public class UserService {
             throw new RuntimeException("User not found with id: " + id);
         }
         userRepository.deleteById(id);
+        snapshotCache.invalidate(id);
+        tokenService.ifAvailable(tokens -> tokens.revokeAll(id));
     }
 
     public User createUser(String name, String email, String password) {
@@ -146,12 +180,13 @@ public class UserService {
         user.setOnline(online);
         user.setLastSeen(LocalDateTime.now());
         userRepository.save(user);
+        snapshotCache.invalidate(userId);
     }
 
     public List<User> findOnlineUsers() {
-        return userRepository.findAll().stream()
-                .filter(User::isOnline)
-                .toList();
+        List<User> users = userRepository.findAllById(presenceRegistry.getOnlineUserIds());
+        users.forEach(user -> user.setOnline(true));
+        return users;
     }
 
     public Role getRoleByName(String roleName) {
@@ -0,0 +1,144 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.UserSnapshot;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Bounded near-cache of {@link UserSnapshot}s keyed by id, with a secondary email index. Entries are evicted in
+ * least-recently-used order once {@code max-size} is reached and expire {@code ttl-ms} after they were loaded.
+ * Only successful lookups are cached.
+ */
+@Component
+public class UserSnapshotCache {
+
+    public record Stats(long hits, long misses, long evictions, int size) {
+    }
+
+    private record Entry(UserSnapshot snapshot, long expiresAtNanos) {
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Long, Entry> byId;
+    private final Map<String, Long> idsByEmail = new HashMap<>();
+
+    // Bumped by every invalidation, so a load that raced with one is not cached.
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public UserSnapshotCache(@Value("${chat.user-cache.max-size:10000}") int maxSize,
+                             @Value("${chat.user-cache.ttl-ms:60000}") long ttlMs) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.byId = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() <= UserSnapshotCache.this.maxSize) {
+                    return false;
+                }
+                idsByEmail.remove(eldest.getValue().snapshot().email());
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    public UserSnapshot getById(Long id, Supplier<UserSnapshot> loader) {
+        lock.lock();
+        try {
+            UserSnapshot cached = lookup(id);
+            if (cached != null) {
+                return cached;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return load(loader);
+    }
+
+    public UserSnapshot getByEmail(String email, Supplier<UserSnapshot> loader) {
+        lock.lock();
+        try {
+            Long id = idsByEmail.get(email);
+            UserSnapshot cached = id == null ? null : lookup(id);
+            if (cached != null) {
+                return cached;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return load(loader);
+    }
+
+    public void invalidate(Long id) {
+        generation.incrementAndGet();
+        lock.lock();
+        try {
+            Entry removed = byId.remove(id);
+            if (removed != null) {
+                idsByEmail.remove(removed.snapshot().email());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats getStats() {
+        lock.lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), byId.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held; counts a miss for absent and expired entries.
+    private UserSnapshot lookup(Long id) {
+        Entry entry = byId.get(id);
+        if (entry != null && entry.expiresAtNanos() - System.nanoTime() > 0) {
+            hits.increment();
+            return entry.snapshot();
+        }
+        if (entry != null) {
+            byId.remove(id);
+            idsByEmail.remove(entry.snapshot().email());
+            evictions.increment();
+        }
+        misses.increment();
+        return null;
+    }
+
+    private UserSnapshot load(Supplier<UserSnapshot> loader) {
+        long loadedAt = generation.get();
+        UserSnapshot snapshot = loader.get();
+        lock.lock();
+        try {
+            if (generation.get() == loadedAt) {
+                Entry previous = byId.put(snapshot.id(), new Entry(snapshot, System.nanoTime() + ttlNanos));
+                if (previous != null && !Objects.equals(previous.snapshot().email(), snapshot.email())) {
+                    idsByEmail.remove(previous.snapshot().email());
+                }
+                idsByEmail.put(snapshot.email(), snapshot.id());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return snapshot;
+    }
+}
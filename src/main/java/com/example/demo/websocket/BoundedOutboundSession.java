@@ -0,0 +1,212 @@
+package com.example.demo.websocket;
+
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Session decorator that never blocks the sending thread. Outbound messages are queued in a per-session buffer
+ * bounded by message count and bytes, and written with the container's asynchronous send, one at a time.
+ * When the buffer is full the {@link OverflowPolicy} decides whether the oldest queued messages are dropped or
+ * the session is disconnected. A session whose in-flight write is older than the send time limit is disconnected
+ * either way, so a stalled client costs at most one buffer of memory.
+ */
+public class BoundedOutboundSession extends WebSocketSessionDecorator {
+
+    private static final Logger logger = LoggerFactory.getLogger(BoundedOutboundSession.class);
+
+    public enum OverflowPolicy {
+        /** Discard the oldest queued messages to make room. */
+        DROP,
+        /** Close the session as not reliable. */
+        DISCONNECT
+    }
+
+    private static final ThreadLocal<BoundedOutboundSession> CURRENT_WRITER = new ThreadLocal<>();
+
+    private static final ThreadLocal<SendResult> INLINE_RESULT = new ThreadLocal<>();
+
+    private final RemoteEndpoint.Async remote;
+    private final int bufferMessageLimit;
+    private final int bufferByteLimit;
+    private final long sendTimeLimitNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final OutboundSessionStats stats;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<WebSocketMessage<?>> buffer = new ArrayDeque<>();
+    private int bufferedBytes;
+    private boolean writing;
+    private long writeStartedNanos;
+    private boolean evicted;
+
+    public BoundedOutboundSession(WebSocketSession delegate, Session nativeSession, int bufferMessageLimit,
+                                  int bufferByteLimit, long sendTimeLimitMs, OverflowPolicy overflowPolicy,
+                                  OutboundSessionStats stats) {
+        super(delegate);
+        this.remote = nativeSession.getAsyncRemote();
+        this.bufferMessageLimit = bufferMessageLimit;
+        this.bufferByteLimit = bufferByteLimit;
+        this.sendTimeLimitNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMs);
+        this.overflowPolicy = overflowPolicy;
+        this.stats = stats;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        WebSocketMessage<?> next = null;
+        String evictionReason = null;
+        lock.lock();
+        try {
+            if (evicted) {
+                return;
+            }
+            if (writing && System.nanoTime() - writeStartedNanos > sendTimeLimitNanos) {
+                evictionReason = "send time limit exceeded";
+            } else if (!makeRoomFor(message)) {
+                evictionReason = "outbound buffer full";
+            } else {
+                buffer.addLast(message);
+                bufferedBytes += message.getPayloadLength();
+                if (!writing) {
+                    next = pollNext();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (evictionReason != null) {
+            evict(evictionReason);
+        } else if (next != null) {
+            write(next);
+        }
+    }
+
+    public int getBufferedBytes() {
+        lock.lock();
+        try {
+            return bufferedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held.
+    private boolean makeRoomFor(WebSocketMessage<?> message) {
+        int size = message.getPayloadLength();
+        while (buffer.size() >= bufferMessageLimit || (bufferedBytes + size > bufferByteLimit && !buffer.isEmpty())) {
+            if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                return false;
+            }
+            WebSocketMessage<?> dropped = buffer.pollFirst();
+            bufferedBytes -= dropped.getPayloadLength();
+            stats.messageDropped();
+        }
+        return true;
+    }
+
+    // Called with the lock held.
+    private WebSocketMessage<?> pollNext() {
+        WebSocketMessage<?> next = buffer.pollFirst();
+        if (next == null) {
+            writing = false;
+            return null;
+        }
+        bufferedBytes -= next.getPayloadLength();
+        writing = true;
+        writeStartedNanos = System.nanoTime();
+        return next;
+    }
+
+    // Writes queued messages until one completes asynchronously; its callback then continues from there.
+    // Completions that arrive inline on the writing thread are handed back through a thread local instead of
+    // recursing, so a fast client cannot overflow the stack.
+    private void write(WebSocketMessage<?> first) {
+        WebSocketMessage<?> message = first;
+        while (message != null) {
+            INLINE_RESULT.remove();
+            CURRENT_WRITER.set(this);
+            try {
+                send(message);
+            } catch (IOException | RuntimeException e) {
+                INLINE_RESULT.set(new SendResult(e));
+            } finally {
+                CURRENT_WRITER.remove();
+            }
+            SendResult result = INLINE_RESULT.get();
+            INLINE_RESULT.remove();
+            if (result == null) {
+                return;
+            }
+            message = afterWrite(result);
+        }
+    }
+
+    private void send(WebSocketMessage<?> message) throws IOException {
+        if (message instanceof TextMessage textMessage) {
+            remote.sendText(textMessage.getPayload(), this::onWriteComplete);
+        } else if (message instanceof BinaryMessage binaryMessage) {
+            remote.sendBinary(binaryMessage.getPayload(), this::onWriteComplete);
+        } else {
+            // Ping and pong frames are rare and small; send them synchronously through the delegate.
+            getDelegate().sendMessage(message);
+            onWriteComplete(new SendResult());
+        }
+    }
+
+    private void onWriteComplete(SendResult result) {
+        if (CURRENT_WRITER.get() == this) {
+            INLINE_RESULT.set(result);
+            return;
+        }
+        write(afterWrite(result));
+    }
+
+    private WebSocketMessage<?> afterWrite(SendResult result) {
+        if (!result.isOK()) {
+            evict("write failed: " + result.getException());
+            return null;
+        }
+        lock.lock();
+        try {
+            return evicted ? null : pollNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evict(String reason) {
+        lock.lock();
+        try {
+            if (evicted) {
+                return;
+            }
+            evicted = true;
+            buffer.clear();
+            bufferedBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+        stats.sessionEvicted();
+        logger.warn("Disconnecting slow WebSocket session {}: {}", getId(), reason);
+        try {
+            getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Failed to close session {}", getId(), e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.demo.websocket;
+
+import jakarta.websocket.Session;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.standard.StandardWebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Wraps every native WebSocket session in a {@link BoundedOutboundSession}. SockJS sessions have no asynchronous
+ * send and keep Spring's default send-time and buffer limits.
+ */
+public class BoundedOutboundSessionDecoratorFactory implements WebSocketHandlerDecoratorFactory {
+
+    private final int bufferMessageLimit;
+    private final int bufferByteLimit;
+    private final long sendTimeLimitMs;
+    private final BoundedOutboundSession.OverflowPolicy overflowPolicy;
+    private final OutboundSessionStats stats = new OutboundSessionStats();
+    private final Map<String, BoundedOutboundSession> sessions = new ConcurrentHashMap<>();
+
+    public BoundedOutboundSessionDecoratorFactory(int bufferMessageLimit, int bufferByteLimit, long sendTimeLimitMs,
+                                                  BoundedOutboundSession.OverflowPolicy overflowPolicy) {
+        this.bufferMessageLimit = bufferMessageLimit;
+        this.bufferByteLimit = bufferByteLimit;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                WebSocketSession decorated = session;
+                if (session instanceof StandardWebSocketSession standardSession) {
+                    BoundedOutboundSession bounded = new BoundedOutboundSession(session,
+                            standardSession.getNativeSession(Session.class), bufferMessageLimit, bufferByteLimit,
+                            sendTimeLimitMs, overflowPolicy, stats);
+                    sessions.put(session.getId(), bounded);
+                    decorated = bounded;
+                }
+                super.afterConnectionEstablished(decorated);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessions.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    public OutboundSessionStats getStats() {
+        return stats;
+    }
+
+    public long getBufferedBytes() {
+        return sessions.values().stream().mapToLong(BoundedOutboundSession::getBufferedBytes).sum();
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.demo.websocket;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times how long each task of one message channel takes to handle its message, as {@code chat.channel.task}
+ * tagged with the channel name. Use one instance per channel: the start time is kept per thread and instance,
+ * so a handler that sends synchronously to another channel does not overwrite it.
+ */
+public class ChannelMetricsInterceptor implements ExecutorChannelInterceptor {
+
+    private final Timer taskTimer;
+    private final ThreadLocal<long[]> handleStart = ThreadLocal.withInitial(() -> new long[1]);
+
+    public ChannelMetricsInterceptor(MeterRegistry meterRegistry, String channelName) {
+        this.taskTimer = Timer.builder("chat.channel.task")
+                .description("Time to handle one message on a broker channel")
+                .tag("channel", channelName)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+        handleStart.get()[0] = System.nanoTime();
+        return message;
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler,
+                                    Exception ex) {
+        taskTimer.record(System.nanoTime() - handleStart.get()[0], TimeUnit.NANOSECONDS);
+    }
+}
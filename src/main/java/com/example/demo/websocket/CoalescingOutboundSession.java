@@ -0,0 +1,234 @@
+package com.example.demo.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Session decorator that packs the STOMP frames sent to one session within a short window into a single
+ * WebSocket (or SockJS) message. STOMP frames are NUL-terminated, so clients split the message back into frames.
+ * The first frame of a batch schedules the end of the window; a batch that reaches the byte cap is closed at once.
+ * Non-text messages close the pending batch and are sent after it as they are.
+ * <p>
+ * Sending never blocks: closed batches are written in order by one task at a time on the writer executor, so a slow
+ * client holds up neither the sending threads nor the shared window scheduler. A session whose write is older than
+ * the send time limit, or whose unwritten frames exceed the buffer limit, is closed as not reliable.
+ */
+public class CoalescingOutboundSession extends WebSocketSessionDecorator {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingOutboundSession.class);
+
+    private final ScheduledExecutorService flushScheduler;
+    private final Executor writer;
+    private final long windowMs;
+    private final int maxBytes;
+    private final long sendTimeLimitNanos;
+    private final int bufferByteLimit;
+    private final CoalescingStats stats;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private List<TextMessage> pending = new ArrayList<>();
+    private int pendingBytes;
+    // Closed batches and non-text messages waiting for the writer, in send order.
+    private final Deque<WebSocketMessage<?>> ready = new ArrayDeque<>();
+    private int readyBytes;
+    private boolean writing;
+    private long writeStartedNanos;
+    private boolean closed;
+
+    public CoalescingOutboundSession(WebSocketSession delegate, ScheduledExecutorService flushScheduler,
+                                     Executor writer, long windowMs, int maxBytes, long sendTimeLimitMs,
+                                     int bufferByteLimit, CoalescingStats stats) {
+        super(delegate);
+        this.flushScheduler = flushScheduler;
+        this.writer = writer;
+        this.windowMs = windowMs;
+        this.maxBytes = maxBytes;
+        this.sendTimeLimitNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMs);
+        this.bufferByteLimit = bufferByteLimit;
+        this.stats = stats;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        int size = message.getPayloadLength();
+        boolean schedule = false;
+        boolean startWriter;
+        String evictionReason = null;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (writing && System.nanoTime() - writeStartedNanos > sendTimeLimitNanos) {
+                evictionReason = "send time limit exceeded";
+            } else if (pendingBytes + readyBytes + size > bufferByteLimit) {
+                evictionReason = "outbound buffer full";
+            } else if (message instanceof TextMessage textMessage) {
+                if (!pending.isEmpty() && pendingBytes + size > maxBytes) {
+                    closeBatch();
+                }
+                schedule = pending.isEmpty();
+                pending.add(textMessage);
+                pendingBytes += size;
+                if (pendingBytes >= maxBytes) {
+                    closeBatch();
+                    schedule = false;
+                }
+            } else {
+                closeBatch();
+                ready.addLast(message);
+                readyBytes += size;
+            }
+            startWriter = evictionReason == null && startWriting();
+        } finally {
+            lock.unlock();
+        }
+        if (evictionReason != null) {
+            evict(evictionReason);
+            return;
+        }
+        if (message instanceof TextMessage) {
+            stats.frameQueued();
+        }
+        if (startWriter) {
+            writer.execute(this::writeReady);
+        } else if (schedule) {
+            flushScheduler.schedule(this::windowElapsed, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        lock.lock();
+        try {
+            discard();
+        } finally {
+            lock.unlock();
+        }
+        super.close(status);
+    }
+
+    // Runs on the scheduler; only hands the batch to the writer.
+    private void windowElapsed() {
+        boolean startWriter;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closeBatch();
+            startWriter = startWriting();
+        } finally {
+            lock.unlock();
+        }
+        if (startWriter) {
+            writer.execute(this::writeReady);
+        }
+    }
+
+    private void writeReady() {
+        while (true) {
+            WebSocketMessage<?> next;
+            lock.lock();
+            try {
+                next = closed ? null : ready.pollFirst();
+                if (next == null) {
+                    writing = false;
+                    return;
+                }
+                readyBytes -= next.getPayloadLength();
+                writeStartedNanos = System.nanoTime();
+            } finally {
+                lock.unlock();
+            }
+            // The client may have gone away while the batch waited for its window.
+            if (!isOpen()) {
+                continue;
+            }
+            if (next instanceof TextMessage) {
+                stats.batchWritten();
+            }
+            try {
+                getDelegate().sendMessage(next);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Failed to write coalesced frames to session {}", getId(), e);
+            }
+        }
+    }
+
+    // Called with the lock held.
+    private void closeBatch() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        TextMessage batch;
+        if (pending.size() == 1) {
+            batch = pending.get(0);
+        } else {
+            byte[] combined = new byte[pendingBytes];
+            int position = 0;
+            for (TextMessage frame : pending) {
+                byte[] bytes = frame.asBytes();
+                System.arraycopy(bytes, 0, combined, position, bytes.length);
+                position += bytes.length;
+            }
+            batch = new TextMessage(combined);
+        }
+        ready.addLast(batch);
+        readyBytes += pendingBytes;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+    }
+
+    // Called with the lock held. Returns whether the caller has to start the writer.
+    private boolean startWriting() {
+        if (writing || ready.isEmpty()) {
+            return false;
+        }
+        writing = true;
+        writeStartedNanos = System.nanoTime();
+        return true;
+    }
+
+    // Called with the lock held.
+    private void discard() {
+        closed = true;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        ready.clear();
+        readyBytes = 0;
+    }
+
+    private void evict(String reason) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            discard();
+        } finally {
+            lock.unlock();
+        }
+        logger.warn("Disconnecting slow WebSocket session {}: {}", getId(), reason);
+        try {
+            getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Failed to close session {}", getId(), e);
+        }
+    }
+}
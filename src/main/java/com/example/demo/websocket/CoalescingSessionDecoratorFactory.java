@@ -0,0 +1,61 @@
+package com.example.demo.websocket;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Wraps every WebSocket and SockJS session in a {@link CoalescingOutboundSession}. The batch windows of all
+ * sessions end on one shared scheduler; the writes run on a pool that grows with the number of sessions writing at
+ * once, so one blocked socket never delays another session's frames.
+ */
+public class CoalescingSessionDecoratorFactory implements WebSocketHandlerDecoratorFactory, DisposableBean {
+
+    private final long windowMs;
+    private final int maxBytes;
+    private final long sendTimeLimitMs;
+    private final int bufferByteLimit;
+    private final ScheduledExecutorService flushScheduler;
+    private final ExecutorService writer;
+    private final CoalescingStats stats = new CoalescingStats();
+
+    public CoalescingSessionDecoratorFactory(long windowMs, int maxBytes, int flushThreads, long sendTimeLimitMs,
+                                             int bufferByteLimit) {
+        this.windowMs = windowMs;
+        this.maxBytes = maxBytes;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.bufferByteLimit = bufferByteLimit;
+        this.flushScheduler = Executors.newScheduledThreadPool(flushThreads,
+                new CustomizableThreadFactory("ws-coalesce-"));
+        this.writer = Executors.newCachedThreadPool(new CustomizableThreadFactory("ws-coalesce-write-"));
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                super.afterConnectionEstablished(
+                        new CoalescingOutboundSession(session, flushScheduler, writer, windowMs, maxBytes,
+                                sendTimeLimitMs, bufferByteLimit, stats));
+            }
+        };
+    }
+
+    public CoalescingStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void destroy() {
+        flushScheduler.shutdownNow();
+        writer.shutdownNow();
+    }
+}
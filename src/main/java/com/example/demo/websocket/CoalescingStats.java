@@ -0,0 +1,28 @@
+package com.example.demo.websocket;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for STOMP frames queued by coalescing sessions and the WebSocket messages they were written in.
+ */
+public class CoalescingStats {
+
+    private final LongAdder queuedFrames = new LongAdder();
+    private final LongAdder writtenBatches = new LongAdder();
+
+    void frameQueued() {
+        queuedFrames.increment();
+    }
+
+    void batchWritten() {
+        writtenBatches.increment();
+    }
+
+    public long getQueuedFrames() {
+        return queuedFrames.sum();
+    }
+
+    public long getWrittenBatches() {
+        return writtenBatches.sum();
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.demo.websocket;
+
+import com.example.demo.dto.ChatMessageDto;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compact encoding of {@link ChatMessageDto} frames for clients that list {@link #CONTENT_TYPE} in the
+ * {@code accept-content-type} header of their STOMP CONNECT frame. A message becomes the array
+ * {@code [type, id, timestamp, senderId, receiverId, chatRoomId, content, seq]}: the type is an index into
+ * {@link #TYPES} (or the name itself for other types), the timestamp is epoch milliseconds, and user names are
+ * not repeated. Each connection has a name dictionary, and a frame that mentions a user the connection has not
+ * been told about yet (or whose name changed) carries a trailing {@code {"userId": "name"}} object.
+ * <p>
+ * Outbound frames are encoded and sent on several threads, so a name enters the dictionary only once a frame
+ * introducing it has been handed to the session (see {@link #afterSend}); every frame encoded before that carries
+ * the name too. Whatever order the frames are sent in, a client has always been told a name before a frame relies
+ * on it. Frames that introduce no names are encoded once per broadcast and shared by all compact sessions, so the
+ * shared-frame encoder still encodes the STOMP frame once.
+ * <p>
+ * The format is still UTF-8 text without NUL bytes, because SockJS only carries text and stomp.js splits frames
+ * at NUL. Frames for other destinations, or that cannot be represented, stay JSON.
+ */
+@Component
+public class CompactMessageCodec {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompactMessageCodec.class);
+
+    public static final MimeType CONTENT_TYPE = MimeType.valueOf("application/vnd.chat.compact+json");
+
+    public static final String ACCEPT_HEADER = "accept-content-type";
+
+    public static final List<String> TYPES = List.of("CHAT", "JOIN", "LEAVE", "ERROR");
+
+    private static final int CACHE_SLOTS = 16;
+
+    // Names a re-encoded message introduces, added to the session's dictionary once it has been sent.
+    private static final String INTRODUCED_HEADER = "compactIntroducedNames";
+
+    private final ObjectMapper objectMapper;
+    private final ZoneId zone = ZoneId.systemDefault();
+    // Session id -> names the session has already received.
+    private final Map<String, NameDictionary> dictionaries = new ConcurrentHashMap<>();
+    // Broadcasts share one payload array across sessions, so each is parsed once.
+    private final AtomicReferenceArray<Decoded> decoded = new AtomicReferenceArray<>(CACHE_SLOTS);
+
+    public CompactMessageCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Enables the compact encoding for the session of a CONNECT frame that accepts it.
+     */
+    public void negotiate(StompHeaderAccessor connect) {
+        String accepted = connect.getFirstNativeHeader(ACCEPT_HEADER);
+        if (accepted == null || connect.getSessionId() == null) {
+            return;
+        }
+        for (MimeType mimeType : MimeTypeUtils.parseMimeTypes(accepted)) {
+            if (CONTENT_TYPE.equalsTypeAndSubtype(mimeType)) {
+                dictionaries.put(connect.getSessionId(), new NameDictionary());
+                return;
+            }
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        dictionaries.remove(event.getSessionId());
+    }
+
+    /**
+     * Re-encodes an outbound chat message for its session if the session negotiated the compact encoding;
+     * returns the message unchanged otherwise.
+     */
+    public Message<?> encodeForSession(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+        NameDictionary dictionary = dictionaries.get(SimpMessageHeaderAccessor.getSessionId(headers));
+        if (dictionary == null || !isChatDestination(message)
+                || !MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(contentType(headers))) {
+            return message;
+        }
+        Decoded decoded = decode(payload);
+        if (decoded.compact() == null) {
+            return message;
+        }
+        ChatMessageDto dto = decoded.dto();
+        Map<Long, String> introduced = new LinkedHashMap<>(2);
+        dictionary.lock.lock();
+        try {
+            introduce(dto.getSenderId(), dto.getSenderName(), dictionary.names, introduced);
+            introduce(dto.getReceiverId(), dto.getReceiverName(), dictionary.names, introduced);
+        } finally {
+            dictionary.lock.unlock();
+        }
+        byte[] compact = decoded.compact();
+        MessageHeaderAccessor accessor = MessageHeaderAccessor.getMutableAccessor(message);
+        if (!introduced.isEmpty()) {
+            try {
+                compact = encode(dto, introduced);
+            } catch (IOException e) {
+                logger.warn("Cannot encode message compactly, sending JSON", e);
+                return message;
+            }
+            accessor.setHeader(INTRODUCED_HEADER, introduced);
+        }
+        accessor.setContentType(CONTENT_TYPE);
+        return MessageBuilder.createMessage(compact, accessor.getMessageHeaders());
+    }
+
+    /**
+     * Adds the names a message returned by {@link #encodeForSession} introduced to its session's dictionary, once
+     * the message has been handed to the session. A message that was not sent leaves the names to later frames.
+     */
+    public void afterSend(Message<?> message, Exception ex) {
+        if (message == null || ex != null) {
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Map<Long, String> introduced = (Map<Long, String>) message.getHeaders().get(INTRODUCED_HEADER);
+        if (introduced == null) {
+            return;
+        }
+        NameDictionary dictionary = dictionaries.get(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+        if (dictionary == null) {
+            return;
+        }
+        dictionary.lock.lock();
+        try {
+            dictionary.names.putAll(introduced);
+        } finally {
+            dictionary.lock.unlock();
+        }
+    }
+
+    private byte[] encode(ChatMessageDto dto, Map<Long, String> introduced) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            int typeCode = dto.getType() != null ? TYPES.indexOf(dto.getType()) : -1;
+            if (typeCode >= 0) {
+                generator.writeNumber(typeCode);
+            } else {
+                generator.writeString(dto.getType());
+            }
+            writeNumber(generator, dto.getId());
+            writeNumber(generator, dto.getTimestamp() != null
+                    ? dto.getTimestamp().atZone(zone).toInstant().toEpochMilli() : null);
+            writeNumber(generator, dto.getSenderId());
+            writeNumber(generator, dto.getReceiverId());
+            writeNumber(generator, dto.getChatRoomId());
+            generator.writeString(dto.getContent());
+            writeNumber(generator, dto.getSeq());
+            if (!introduced.isEmpty()) {
+                generator.writeStartObject();
+                for (Map.Entry<Long, String> entry : introduced.entrySet()) {
+                    generator.writeStringField(entry.getKey().toString(), entry.getValue());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        return out.toByteArray();
+    }
+
+    private static void introduce(Long userId, String name, Map<Long, String> names, Map<Long, String> introduced) {
+        if (userId != null && name != null && !name.equals(names.get(userId))) {
+            introduced.put(userId, name);
+        }
+    }
+
+    private static void writeNumber(JsonGenerator generator, Long value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(value);
+        }
+    }
+
+    private Decoded decode(byte[] payload) {
+        int slot = System.identityHashCode(payload) & (CACHE_SLOTS - 1);
+        Decoded cached = decoded.get(slot);
+        if (cached != null && cached.payload() == payload) {
+            return cached;
+        }
+        ChatMessageDto dto = null;
+        byte[] compact = null;
+        try {
+            dto = objectMapper.readValue(payload, ChatMessageDto.class);
+            // Names are sent by id only, so a message naming a user without an id stays JSON.
+            if ((dto.getSenderId() != null || dto.getSenderName() == null)
+                    && (dto.getReceiverId() != null || dto.getReceiverName() == null)) {
+                compact = encode(dto, Map.of());
+            }
+        } catch (IOException e) {
+            logger.debug("Cannot encode message compactly, sending JSON", e);
+        }
+        Decoded result = new Decoded(payload, dto, compact);
+        decoded.set(slot, result);
+        return result;
+    }
+
+    // Topics and user queues that carry ChatMessageDto payloads.
+    private static boolean isChatDestination(Message<?> message) {
+        String destination = SimpMessageHeaderAccessor.getFirstNativeHeader(
+                SimpMessageHeaderAccessor.ORIGINAL_DESTINATION, message.getHeaders());
+        if (destination == null) {
+            destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        }
+        return destination != null && (destination.equals("/topic/public")
+                || destination.startsWith("/topic/room/")
+                || destination.equals("/user/queue/messages"));
+    }
+
+    private static MimeType contentType(MessageHeaders headers) {
+        Object value = headers.get(MessageHeaders.CONTENT_TYPE);
+        if (value instanceof MimeType mimeType) {
+            return mimeType;
+        }
+        return value != null ? MimeType.valueOf(Objects.toString(value)) : null;
+    }
+
+    // The compact encoding without introduced names, or null when the message stays JSON.
+    private record Decoded(byte[] payload, ChatMessageDto dto, byte[] compact) {
+    }
+
+    // Names by user id that one session has been sent, guarded by the lock.
+    private static final class NameDictionary {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<Long, String> names = new HashMap<>();
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.demo.websocket;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broker channel executor that runs all messages for one destination on the same single-threaded partition.
+ * Fan-out for a busy topic stays in publish order and cannot starve other destinations, which are spread over
+ * the remaining partitions.
+ */
+public class DestinationPartitionedTaskExecutor extends ThreadPoolTaskExecutor {
+
+    private final ThreadPoolExecutor[] partitions;
+
+    public DestinationPartitionedTaskExecutor(int partitionCount) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("broker-partition-");
+        this.partitions = new ThreadPoolExecutor[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    threadFactory);
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        partitions[partitionFor(task)].execute(task);
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    public int getQueuedTaskCount() {
+        int queued = 0;
+        for (ThreadPoolExecutor partition : partitions) {
+            queued += partition.getQueue().size();
+        }
+        return queued;
+    }
+
+    @Override
+    public void shutdown() {
+        for (ThreadPoolExecutor partition : partitions) {
+            partition.shutdown();
+        }
+        super.shutdown();
+    }
+
+    private int partitionFor(Runnable task) {
+        String destination = null;
+        if (task instanceof MessageHandlingRunnable handlingRunnable) {
+            Message<?> message = handlingRunnable.getMessage();
+            destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        }
+        if (destination == null) {
+            return ThreadLocalRandom.current().nextInt(partitions.length);
+        }
+        return Math.floorMod(destination.hashCode(), partitions.length);
+    }
+}
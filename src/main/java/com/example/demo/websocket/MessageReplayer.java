@@ -0,0 +1,186 @@
+package com.example.demo.websocket;
+
+import com.example.demo.archive.MessageArchive;
+import com.example.demo.dto.ChatMessageDto;
+import com.example.demo.dto.MessageReplay;
+import com.example.demo.model.ChatMessage;
+import com.example.demo.repository.ChatMessageRepository;
+import com.example.demo.service.RecentMessageCache;
+import com.example.demo.service.UserService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.MimeType;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays the messages a reconnecting client missed. A SUBSCRIBE to {@code /topic/room/...} or
+ * {@code /user/queue/messages} may carry a {@value #RESUME_HEADER} header of comma-separated
+ * {@code conversationId:seq} pairs: room ids for room topics, the other user's id for direct messages, each with
+ * the last sequence number the client has. Once the subscription is registered, every listed conversation the
+ * subscription covers gets one {@link #CONTENT_TYPE} frame holding a {@link MessageReplay}, served from
+ * {@link RecentMessageCache} when it reaches back far enough and from the database otherwise. Messages that were
+ * already moved to the {@link MessageArchive} are not replayed; the replay is marked truncated instead.
+ * <p>
+ * Live messages can overtake a replay frame, so clients hold back messages of a resumed conversation until its
+ * replay arrives and skip the ones they already have.
+ */
+@Component
+public class MessageReplayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageReplayer.class);
+
+    public static final String RESUME_HEADER = "resume-seq";
+
+    public static final MimeType CONTENT_TYPE = MimeType.valueOf("application/vnd.chat.replay+json");
+
+    public static final String ROOM_TOPIC_PREFIX = "/topic/room/";
+
+    public static final String USER_QUEUE = "/user/queue/messages";
+
+    private static final int MAX_CONVERSATIONS = 100;
+
+    private final RecentMessageCache recentMessageCache;
+    private final ChatMessageRepository chatMessageRepository;
+    private final UserService userService;
+    private final ObjectMapper objectMapper;
+    // Looked up on use: the channel is created by the STOMP configuration that registers this replayer.
+    private final ObjectProvider<MessageChannel> clientOutboundChannel;
+    private final ObjectProvider<MessageArchive> messageArchive;
+    private final int maxMessages;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    public MessageReplayer(RecentMessageCache recentMessageCache, ChatMessageRepository chatMessageRepository,
+                           UserService userService, ObjectMapper objectMapper,
+                           @Qualifier("clientOutboundChannel") ObjectProvider<MessageChannel> clientOutboundChannel,
+                           ObjectProvider<MessageArchive> messageArchive,
+                           @Value("${chat.stomp.resume.max-messages:500}") int maxMessages) {
+        this.recentMessageCache = recentMessageCache;
+        this.chatMessageRepository = chatMessageRepository;
+        this.userService = userService;
+        this.objectMapper = objectMapper;
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.messageArchive = messageArchive;
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * Called after {@code handler} handled a client inbound message. Room topic subscriptions are registered by the
+     * broker itself; user queue subscriptions by the user destination handler, which hands the resolved
+     * subscription to the broker.
+     */
+    public void handled(Message<?> message, MessageHandler handler) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.SUBSCRIBE) {
+            return;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        String resume = accessor.getFirstNativeHeader(RESUME_HEADER);
+        String destination = accessor.getDestination();
+        if (resume == null || destination == null) {
+            return;
+        }
+        Map<Long, Long> positions = parse(resume);
+        if (handler instanceof SimpleBrokerMessageHandler && destination.startsWith(ROOM_TOPIC_PREFIX)) {
+            positions.forEach((chatRoomId, seq) -> {
+                if (pathMatcher.match(destination, ROOM_TOPIC_PREFIX + chatRoomId)) {
+                    send(accessor, ROOM_TOPIC_PREFIX + chatRoomId, replayRoom(chatRoomId, seq));
+                }
+            });
+        } else if (handler instanceof UserDestinationMessageHandler && destination.equals(USER_QUEUE)) {
+            Principal user = accessor.getUser();
+            if (user == null) {
+                return;
+            }
+            Long userId = userService.getUserSnapshotByEmail(user.getName()).id();
+            positions.forEach((peerId, seq) -> send(accessor, USER_QUEUE, replayDirect(userId, peerId, seq)));
+        }
+    }
+
+    private MessageReplay replayRoom(Long chatRoomId, long seq) {
+        List<ChatMessageDto> messages = recentMessageCache.roomMessagesAfter(chatRoomId, seq)
+                .orElseGet(() -> chatMessageRepository.findChatRoomMessagesAfterSeq(
+                        chatRoomId, seq, PageRequest.of(0, maxMessages + 1)));
+        boolean truncated = messages.size() > maxMessages || archivedAfter(MessageArchive.roomKey(chatRoomId), seq);
+        return new MessageReplay(chatRoomId, null, upToMax(messages), truncated);
+    }
+
+    private MessageReplay replayDirect(Long userId, Long peerId, long seq) {
+        List<ChatMessageDto> messages = recentMessageCache.directMessagesAfter(userId, peerId, seq)
+                .orElseGet(() -> chatMessageRepository.findDirectMessagesAfterSeq(
+                        ChatMessage.conversationKey(userId, peerId), seq, PageRequest.of(0, maxMessages + 1)));
+        boolean truncated = messages.size() > maxMessages
+                || archivedAfter(MessageArchive.directKey(userId, peerId), seq);
+        return new MessageReplay(null, peerId, upToMax(messages), truncated);
+    }
+
+    private List<ChatMessageDto> upToMax(List<ChatMessageDto> messages) {
+        return messages.size() > maxMessages ? messages.subList(0, maxMessages) : messages;
+    }
+
+    private boolean archivedAfter(String archiveKey, long seq) {
+        MessageArchive archive = messageArchive.getIfAvailable();
+        if (archive == null) {
+            return false;
+        }
+        try {
+            return archive.lastSeq(archiveKey) > seq;
+        } catch (IOException e) {
+            logger.warn("Cannot read message archive for {}", archiveKey, e);
+            return true;
+        }
+    }
+
+    private void send(SimpMessageHeaderAccessor subscribe, String destination, MessageReplay replay) {
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(replay);
+        } catch (JsonProcessingException e) {
+            logger.error("Cannot encode replay for {}", destination, e);
+            return;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(subscribe.getSessionId());
+        accessor.setSubscriptionId(subscribe.getSubscriptionId());
+        accessor.setDestination(destination);
+        accessor.setContentType(CONTENT_TYPE);
+        accessor.setLeaveMutable(true);
+        clientOutboundChannel.getObject().send(MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+    }
+
+    static Map<Long, Long> parse(String resume) {
+        Map<Long, Long> positions = new LinkedHashMap<>();
+        for (String pair : resume.split(",")) {
+            int separator = pair.indexOf(':');
+            if (separator < 0 || positions.size() >= MAX_CONVERSATIONS) {
+                continue;
+            }
+            try {
+                positions.put(Long.valueOf(pair.substring(0, separator).trim()),
+                        Long.valueOf(pair.substring(separator + 1).trim()));
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring malformed {} entry '{}'", RESUME_HEADER, pair);
+            }
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,455 @@
+package com.example.demo.websocket;
+
+import com.example.demo.dto.ChatMessageDto;
+import com.example.demo.service.UserService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.Principal;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Holds direct messages for users without a {@link MessageReplayer#USER_QUEUE} subscription on this node, which
+ * the user destination handler would otherwise drop, and delivers them in order to the user's next subscription.
+ * A reconnecting client then gets one bounded batch instead of reloading each conversation's history.
+ * <p>
+ * Each user's first {@code memory-messages-per-user} messages are kept in memory, as long as all mailboxes together
+ * hold fewer than {@code max-memory-messages}; later ones are appended to a spill file of the user under
+ * {@code chat.mailbox.dir}, up to {@code max-spill-bytes} over all users. A user's mailbox holds at most
+ * {@code max-messages-per-user} messages. Messages beyond any cap are dropped: they are still in the history, and
+ * in the unread counts. Conversations a subscription resumes with {@code resume-seq} are left to the replay.
+ * <p>
+ * Mailboxes do not survive a restart, and the spill files of the previous run are deleted on start. Subscriptions
+ * are only known per node, so with a cluster a user connected to another node gets a message live there and
+ * again from this node's mailbox on their next connect to it.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.mailbox.enabled", havingValue = "true", matchIfMissing = true)
+public class OfflineMailbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(OfflineMailbox.class);
+
+    private static final String SPILL_SUFFIX = ".spill";
+
+    private static final long NULL = Long.MIN_VALUE;
+
+    public record Stats(long held, long delivered, long dropped, int mailboxes, long memoryMessages,
+                        long spilledBytes) {
+    }
+
+    private final UserService userService;
+    private final ObjectMapper objectMapper;
+    private final ObjectProvider<MessageChannel> clientOutboundChannel;
+    private final Path dir;
+    private final int memoryMessagesPerUser;
+    private final int maxMessagesPerUser;
+    private final long maxMemoryMessages;
+    private final long maxSpillBytes;
+
+    private final Map<Long, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    // Session id -> user and the ids of the session's user queue subscriptions.
+    private final Map<String, SessionSubscriptions> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong memoryMessages = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+
+    private final LongAdder held = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public OfflineMailbox(UserService userService, ObjectMapper objectMapper,
+                          @Qualifier("clientOutboundChannel") ObjectProvider<MessageChannel> clientOutboundChannel,
+                          @Value("${chat.mailbox.dir:data/mailbox}") String dir,
+                          @Value("${chat.mailbox.memory-messages-per-user:32}") int memoryMessagesPerUser,
+                          @Value("${chat.mailbox.max-messages-per-user:1000}") int maxMessagesPerUser,
+                          @Value("${chat.mailbox.max-memory-messages:100000}") long maxMemoryMessages,
+                          @Value("${chat.mailbox.max-spill-bytes:268435456}") long maxSpillBytes) throws IOException {
+        this.userService = userService;
+        this.objectMapper = objectMapper;
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.dir = Path.of(dir);
+        this.memoryMessagesPerUser = memoryMessagesPerUser;
+        this.maxMessagesPerUser = maxMessagesPerUser;
+        this.maxMemoryMessages = maxMemoryMessages;
+        this.maxSpillBytes = maxSpillBytes;
+        deleteSpillFiles();
+    }
+
+    /**
+     * Sends a direct message live with {@code sendLive} and keeps it for its receiver if they have no user queue
+     * subscription on this node. Both happen under the receiver's mailbox lock, so a subscription registered in
+     * between either gets the message live or finds it held.
+     */
+    public void deliver(ChatMessageDto message, Runnable sendLive) {
+        Long userId = message.getReceiverId();
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(userId, Mailbox::new);
+            mailbox.lock.lock();
+            try {
+                if (mailbox.closed) {
+                    continue;
+                }
+                sendLive.run();
+                if (mailbox.subscriptions == 0) {
+                    hold(mailbox, message);
+                }
+                closeIfUnused(mailbox);
+                return;
+            } finally {
+                mailbox.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Called after {@code handler} handled a client inbound message. A user queue subscription, once registered,
+     * gets the held messages and stops further ones from being held; its end lets them be held again.
+     */
+    public void handled(Message<?> message, MessageHandler handler) {
+        if (!(handler instanceof UserDestinationMessageHandler)) {
+            return;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        SimpMessageType type = accessor.getMessageType();
+        if (type == SimpMessageType.SUBSCRIBE && MessageReplayer.USER_QUEUE.equals(accessor.getDestination())) {
+            subscribed(accessor);
+        } else if (type == SimpMessageType.UNSUBSCRIBE) {
+            SessionSubscriptions session = sessions.get(accessor.getSessionId());
+            if (session != null && session.remove(accessor.getSubscriptionId())) {
+                unsubscribed(session.userId, 1);
+            }
+        } else if (type == SimpMessageType.DISCONNECT) {
+            SessionSubscriptions session = sessions.remove(accessor.getSessionId());
+            if (session != null) {
+                unsubscribed(session.userId, session.clear());
+            }
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(held.sum(), delivered.sum(), dropped.sum(), mailboxes.size(), memoryMessages.get(),
+                spilledBytes.get());
+    }
+
+    private void subscribed(SimpMessageHeaderAccessor subscribe) {
+        Principal user = subscribe.getUser();
+        if (user == null || subscribe.getSessionId() == null) {
+            return;
+        }
+        Long userId = userService.getUserSnapshotByEmail(user.getName()).id();
+        if (!sessions.computeIfAbsent(subscribe.getSessionId(), id -> new SessionSubscriptions(userId))
+                .add(subscribe.getSubscriptionId())) {
+            return;
+        }
+        String resume = subscribe.getFirstNativeHeader(MessageReplayer.RESUME_HEADER);
+        Set<Long> resumedPeers = resume != null ? MessageReplayer.parse(resume).keySet() : Set.of();
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(userId, Mailbox::new);
+            mailbox.lock.lock();
+            try {
+                if (mailbox.closed) {
+                    continue;
+                }
+                mailbox.subscriptions++;
+                // Sent with the lock held, so live messages, which are sent under it too, come after.
+                for (ChatMessageDto message : takeAll(mailbox)) {
+                    if (!resumedPeers.contains(message.getSenderId())) {
+                        send(subscribe, message);
+                    }
+                }
+                return;
+            } finally {
+                mailbox.lock.unlock();
+            }
+        }
+    }
+
+    private void unsubscribed(Long userId, int count) {
+        Mailbox mailbox = mailboxes.get(userId);
+        if (mailbox == null || count == 0) {
+            return;
+        }
+        mailbox.lock.lock();
+        try {
+            mailbox.subscriptions = Math.max(0, mailbox.subscriptions - count);
+            closeIfUnused(mailbox);
+        } finally {
+            mailbox.lock.unlock();
+        }
+    }
+
+    // Called with the mailbox lock held.
+    private void closeIfUnused(Mailbox mailbox) {
+        if (mailbox.subscriptions == 0 && mailbox.memory.isEmpty() && mailbox.spilledMessages == 0) {
+            mailbox.closed = true;
+            mailboxes.remove(mailbox.userId, mailbox);
+        }
+    }
+
+    // Called with the mailbox lock held.
+    private void hold(Mailbox mailbox, ChatMessageDto message) {
+        if (mailbox.memory.size() + mailbox.spilledMessages >= maxMessagesPerUser) {
+            dropped.increment();
+            return;
+        }
+        // Once a mailbox spills, the rest goes to the file too, so the memory part stays the oldest.
+        if (mailbox.spilledMessages == 0 && mailbox.memory.size() < memoryMessagesPerUser) {
+            if (memoryMessages.incrementAndGet() <= maxMemoryMessages) {
+                mailbox.memory.addLast(message);
+                held.increment();
+                return;
+            }
+            memoryMessages.decrementAndGet();
+        }
+        byte[] record = encode(message);
+        if (spilledBytes.addAndGet(record.length) > maxSpillBytes) {
+            spilledBytes.addAndGet(-record.length);
+            dropped.increment();
+            return;
+        }
+        try {
+            Files.createDirectories(dir);
+            Files.write(spillFile(mailbox.userId), record, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.warn("Cannot spill message {} for user {}", message.getId(), mailbox.userId, e);
+            spilledBytes.addAndGet(-record.length);
+            dropped.increment();
+            return;
+        }
+        mailbox.spilledMessages++;
+        mailbox.spilledBytes += record.length;
+        held.increment();
+    }
+
+    // Called with the mailbox lock held; empties the mailbox.
+    private List<ChatMessageDto> takeAll(Mailbox mailbox) {
+        List<ChatMessageDto> messages = new ArrayList<>(mailbox.memory.size() + mailbox.spilledMessages);
+        messages.addAll(mailbox.memory);
+        memoryMessages.addAndGet(-mailbox.memory.size());
+        mailbox.memory.clear();
+        if (mailbox.spilledMessages > 0) {
+            Path file = spillFile(mailbox.userId);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                for (int i = 0; i < mailbox.spilledMessages; i++) {
+                    messages.add(decode(in));
+                }
+            } catch (IOException e) {
+                logger.warn("Cannot read spilled messages of user {}", mailbox.userId, e);
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("Cannot delete spill file {}", file, e);
+            }
+            spilledBytes.addAndGet(-mailbox.spilledBytes);
+            mailbox.spilledMessages = 0;
+            mailbox.spilledBytes = 0;
+        }
+        return messages;
+    }
+
+    private void send(SimpMessageHeaderAccessor subscribe, ChatMessageDto message) {
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            logger.error("Cannot encode held message {}", message.getId(), e);
+            return;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(subscribe.getSessionId());
+        accessor.setSubscriptionId(subscribe.getSubscriptionId());
+        accessor.setDestination(MessageReplayer.USER_QUEUE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        clientOutboundChannel.getObject().send(MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+        delivered.increment();
+    }
+
+    // Only the spill files, since the directory is configurable and may hold other files.
+    private void deleteSpillFiles() throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(SPILL_SUFFIX) && Files.isRegularFile(file)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private Path spillFile(Long userId) {
+        return dir.resolve(userId + SPILL_SUFFIX);
+    }
+
+    // id, timestamp (epoch second, nanos), sender id and name, receiver id and name, room id, seq, type, content;
+    // absent numbers are NULL and absent strings have length -1.
+    private static byte[] encode(ChatMessageDto message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + length(message.getContent()) * 3);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(orNull(message.getId()));
+            LocalDateTime timestamp = message.getTimestamp();
+            out.writeLong(timestamp != null ? timestamp.toEpochSecond(ZoneOffset.UTC) : NULL);
+            out.writeInt(timestamp != null ? timestamp.getNano() : 0);
+            out.writeLong(orNull(message.getSenderId()));
+            writeString(out, message.getSenderName());
+            out.writeLong(orNull(message.getReceiverId()));
+            writeString(out, message.getReceiverName());
+            out.writeLong(orNull(message.getChatRoomId()));
+            out.writeLong(orNull(message.getSeq()));
+            writeString(out, message.getType());
+            writeString(out, message.getContent());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode message " + message.getId(), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ChatMessageDto decode(DataInputStream in) throws IOException {
+        Long id = nullable(in.readLong());
+        long epochSecond = in.readLong();
+        int nanos = in.readInt();
+        LocalDateTime timestamp = epochSecond != NULL
+                ? LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC) : null;
+        Long senderId = nullable(in.readLong());
+        String senderName = readString(in);
+        Long receiverId = nullable(in.readLong());
+        String receiverName = readString(in);
+        Long chatRoomId = nullable(in.readLong());
+        Long seq = nullable(in.readLong());
+        String type = readString(in);
+        String content = readString(in);
+        ChatMessageDto message = new ChatMessageDto(id, content, timestamp, senderId, senderName, receiverId,
+                receiverName, chatRoomId, seq);
+        message.setType(type);
+        return message;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long orNull(Long value) {
+        return value != null ? value : NULL;
+    }
+
+    private static Long nullable(long value) {
+        return value != NULL ? value : null;
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    // Guarded by its lock.
+    private static final class Mailbox {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Long userId;
+        // Oldest first; any spilled messages are newer.
+        private final ArrayDeque<ChatMessageDto> memory = new ArrayDeque<>();
+        private int spilledMessages;
+        private long spilledBytes;
+        private int subscriptions;
+        // Set when the mailbox is removed from the map; callers that still hold it look it up again.
+        private boolean closed;
+
+        Mailbox(Long userId) {
+            this.userId = userId;
+        }
+    }
+
+    private static final class SessionSubscriptions {
+        private final Long userId;
+        private final Set<String> subscriptionIds = new HashSet<>();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        SessionSubscriptions(Long userId) {
+            this.userId = userId;
+        }
+
+        boolean add(String subscriptionId) {
+            lock.lock();
+            try {
+                return subscriptionIds.add(subscriptionId);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean remove(String subscriptionId) {
+            lock.lock();
+            try {
+                return subscriptionIds.remove(subscriptionId);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int clear() {
+            lock.lock();
+            try {
+                int count = subscriptionIds.size();
+                subscriptionIds.clear();
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
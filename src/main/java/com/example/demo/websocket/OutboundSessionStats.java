@@ -0,0 +1,28 @@
+package com.example.demo.websocket;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for messages dropped from, and sessions evicted by, bounded outbound buffers.
+ */
+public class OutboundSessionStats {
+
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder evictedSessions = new LongAdder();
+
+    void messageDropped() {
+        droppedMessages.increment();
+    }
+
+    void sessionEvicted() {
+        evictedSessions.increment();
+    }
+
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    public long getEvictedSessions() {
+        return evictedSessions.sum();
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.demo.websocket;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sends STOMP RECEIPT frames for SEND frames handled by the application. The broker only answers the
+ * {@code receipt} header of frames it handles itself, so application destinations acknowledge them here, at the
+ * point where the frame's work is actually done.
+ */
+@Component
+public class ReceiptSender {
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    private final ObjectProvider<MessageChannel> clientOutboundChannel;
+
+    public ReceiptSender(@Qualifier("clientOutboundChannel") ObjectProvider<MessageChannel> clientOutboundChannel) {
+        this.clientOutboundChannel = clientOutboundChannel;
+    }
+
+    public void sendReceipt(String sessionId, String receiptId) {
+        StompHeaderAccessor receipt = StompHeaderAccessor.create(StompCommand.RECEIPT);
+        receipt.setSessionId(sessionId);
+        receipt.setReceiptId(receiptId);
+        clientOutboundChannel.getObject().send(MessageBuilder.createMessage(EMPTY_PAYLOAD, receipt.getMessageHeaders()));
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.demo.websocket;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how fast clients may SEND to selected application destinations, with one token bucket per session and
+ * one per authenticated user (shared by all of the user's sessions) for each limited destination. Runs on the
+ * transport thread before the frame is queued on the inbound channel, so a rejected frame costs no channel task.
+ * <p>
+ * A rejected frame is dropped and the session gets one ERROR frame (carrying the frame's {@code receipt} as
+ * {@code receipt-id}), after which the server closes it as STOMP requires. A frame the user bucket rejects gives
+ * its token back to the session bucket. Buckets are single {@link AtomicLong}s updated by compare-and-set, so
+ * concurrent sessions of a user never block each other.
+ */
+public class SendRateLimiter implements ChannelInterceptor {
+
+    /**
+     * {@code perSecond} frames per second on average, up to {@code burst} at once.
+     */
+    public record Limit(double perSecond, int burst) {
+    }
+
+    private final Map<String, Limit> sessionLimits;
+    private final Map<String, Limit> userLimits;
+    private final ObjectProvider<MessageChannel> clientOutboundChannel;
+
+    private final Map<String, SessionBuckets> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, TokenBucket>> users = new ConcurrentHashMap<>();
+    private final Map<String, Counter> sessionRejections = new ConcurrentHashMap<>();
+    private final Map<String, Counter> userRejections = new ConcurrentHashMap<>();
+
+    public SendRateLimiter(Map<String, Limit> sessionLimits, Map<String, Limit> userLimits,
+                           ObjectProvider<MessageChannel> clientOutboundChannel, MeterRegistry meterRegistry) {
+        this.sessionLimits = sessionLimits;
+        this.userLimits = userLimits;
+        this.clientOutboundChannel = clientOutboundChannel;
+        sessionLimits.keySet().forEach(destination ->
+                sessionRejections.put(destination, rejectionCounter(meterRegistry, destination, "session")));
+        userLimits.keySet().forEach(destination ->
+                userRejections.put(destination, rejectionCounter(meterRegistry, destination, "user")));
+        Gauge.builder("chat.stomp.rate.limit.tracked", sessions, Map::size)
+                .description("Sessions and users with rate limit buckets")
+                .tag("scope", "session")
+                .register(meterRegistry);
+        Gauge.builder("chat.stomp.rate.limit.tracked", users, Map::size)
+                .description("Sessions and users with rate limit buckets")
+                .tag("scope", "user")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Parses limits written as {@code destination=perSecond/burst}, separated by commas.
+     */
+    public static Map<String, Limit> parseLimits(String value) {
+        Map<String, Limit> limits = new LinkedHashMap<>();
+        for (String entry : value.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int equals = entry.lastIndexOf('=');
+            int slash = entry.lastIndexOf('/');
+            if (equals < 0 || slash < equals) {
+                throw new IllegalArgumentException("Invalid rate limit, expected destination=perSecond/burst: " + entry);
+            }
+            Limit limit = new Limit(Double.parseDouble(entry.substring(equals + 1, slash).trim()),
+                    Integer.parseInt(entry.substring(slash + 1).trim()));
+            if (limit.perSecond() <= 0 || limit.burst() < 1) {
+                throw new IllegalArgumentException("Invalid rate limit: " + entry);
+            }
+            limits.put(entry.substring(0, equals).trim(), limit);
+        }
+        return limits;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getSessionId() == null) {
+            return message;
+        }
+        if (StompCommand.DISCONNECT.equals(accessor.getCommand())) {
+            sessions.remove(accessor.getSessionId());
+            return message;
+        }
+        if (!StompCommand.SEND.equals(accessor.getCommand()) || accessor.getDestination() == null) {
+            return message;
+        }
+        String destination = accessor.getDestination();
+        long now = System.nanoTime();
+
+        Limit sessionLimit = sessionLimits.get(destination);
+        TokenBucket sessionBucket = null;
+        if (sessionLimit != null) {
+            sessionBucket = sessions.computeIfAbsent(accessor.getSessionId(), id -> new SessionBuckets())
+                    .bucket(destination, now);
+            if (!sessionBucket.tryAcquire(sessionLimit, now)) {
+                sessionRejections.get(destination).increment();
+                reject(accessor);
+                return null;
+            }
+        }
+        Limit userLimit = userLimits.get(destination);
+        Principal user = accessor.getUser();
+        if (userLimit != null && user != null
+                && !users.computeIfAbsent(user.getName(), name -> new ConcurrentHashMap<>())
+                .computeIfAbsent(destination, d -> new TokenBucket(now)).tryAcquire(userLimit, now)) {
+            // The frame is dropped, so it must not count against the session either.
+            if (sessionBucket != null) {
+                sessionBucket.refund(sessionLimit);
+            }
+            userRejections.get(destination).increment();
+            reject(accessor);
+            return null;
+        }
+        return message;
+    }
+
+    /**
+     * Forgets buckets that have refilled completely, which behave like new ones. Sessions are normally forgotten on
+     * DISCONNECT already.
+     */
+    @Scheduled(fixedDelayString = "${chat.rate-limit.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        sessions.values().removeIf(session -> session.buckets.values().stream().allMatch(b -> b.isFull(now)));
+        users.values().removeIf(buckets -> buckets.values().stream().allMatch(b -> b.isFull(now)));
+    }
+
+    // Only the first rejection of a session is answered; the ERROR frame closes it.
+    private void reject(StompHeaderAccessor frame) {
+        SessionBuckets session = sessions.computeIfAbsent(frame.getSessionId(), id -> new SessionBuckets());
+        if (!session.errorSent.compareAndSet(false, true)) {
+            return;
+        }
+        StompHeaderAccessor error = StompHeaderAccessor.create(StompCommand.ERROR);
+        error.setSessionId(frame.getSessionId());
+        error.setMessage("Rate limit exceeded");
+        if (frame.getReceipt() != null) {
+            error.setReceiptId(frame.getReceipt());
+        }
+        byte[] body = ("Too many frames sent to " + frame.getDestination()).getBytes(StandardCharsets.UTF_8);
+        clientOutboundChannel.getObject().send(MessageBuilder.createMessage(body, error.getMessageHeaders()));
+    }
+
+    private static Counter rejectionCounter(MeterRegistry registry, String destination, String scope) {
+        return Counter.builder("chat.stomp.rate.limited")
+                .description("SEND frames dropped by the rate limiter")
+                .tag("destination", destination)
+                .tag("scope", scope)
+                .register(registry);
+    }
+
+    private static final class SessionBuckets {
+        private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+        private final AtomicBoolean errorSent = new AtomicBoolean();
+
+        TokenBucket bucket(String destination, long now) {
+            return buckets.computeIfAbsent(destination, d -> new TokenBucket(now));
+        }
+    }
+
+    /**
+     * Token bucket kept as the time at which it will be full again (the generic cell rate algorithm): each frame
+     * moves that time one interval further, and a frame is allowed while it is at most {@code burst - 1} intervals
+     * ahead of now.
+     */
+    private static final class TokenBucket {
+        private final AtomicLong fullAt;
+
+        TokenBucket(long now) {
+            this.fullAt = new AtomicLong(now);
+        }
+
+        boolean tryAcquire(Limit limit, long now) {
+            long interval = interval(limit);
+            long tolerance = interval * (limit.burst() - 1);
+            while (true) {
+                long current = fullAt.get();
+                // Compared by difference, as System.nanoTime values must be.
+                long start = current - now > 0 ? current : now;
+                if (start - now > tolerance) {
+                    return false;
+                }
+                if (fullAt.compareAndSet(current, start + interval)) {
+                    return true;
+                }
+            }
+        }
+
+        // Gives back a frame taken by tryAcquire. The full time may fall behind now, which counts as full.
+        void refund(Limit limit) {
+            fullAt.addAndGet(-interval(limit));
+        }
+
+        boolean isFull(long now) {
+            return fullAt.get() - now <= 0;
+        }
+
+        private static long interval(Limit limit) {
+            return (long) (TimeUnit.SECONDS.toNanos(1) / limit.perSecond());
+        }
+    }
+}
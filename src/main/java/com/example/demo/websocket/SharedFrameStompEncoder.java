@@ -0,0 +1,130 @@
+package com.example.demo.websocket;
+
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * STOMP encoder that encodes a broadcast once. The broker hands every subscriber the same payload array with
+ * its own {@code subscription} and {@code message-id} headers; everything after those two headers is encoded on
+ * the first session, kept in a small cache keyed by payload identity, and copied behind the per-session headers
+ * for the rest. Frames that are not {@code MESSAGE}s, or whose per-session headers need escaping, use the
+ * regular encoder.
+ */
+public class SharedFrameStompEncoder extends StompEncoder {
+
+    private static final int CACHE_SLOTS = 16;
+
+    private static final byte[] MESSAGE_COMMAND = "MESSAGE\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUBSCRIPTION_KEY = "subscription:".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MESSAGE_ID_KEY = "message-id:".getBytes(StandardCharsets.UTF_8);
+
+    private final AtomicReferenceArray<SharedTail> tails = new AtomicReferenceArray<>(CACHE_SLOTS);
+
+    @Override
+    public byte[] encode(Map<String, Object> headers, byte[] payload) {
+        if (StompHeaderAccessor.getCommand(headers) != StompCommand.MESSAGE) {
+            return super.encode(headers, payload);
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, List<String>> nativeHeaders =
+                (Map<String, List<String>>) headers.get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+        String subscription = singleValue(nativeHeaders, StompHeaderAccessor.STOMP_SUBSCRIPTION_HEADER);
+        String messageId = singleValue(nativeHeaders, StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER);
+        if (subscription == null || messageId == null) {
+            return super.encode(headers, payload);
+        }
+
+        byte[] tail = tailFor(nativeHeaders, payload);
+        byte[] frame = new byte[MESSAGE_COMMAND.length + SUBSCRIPTION_KEY.length + subscription.length() + 1
+                + MESSAGE_ID_KEY.length + messageId.length() + 1 + tail.length];
+        int position = put(frame, 0, MESSAGE_COMMAND);
+        position = put(frame, position, SUBSCRIPTION_KEY);
+        position = putAscii(frame, position, subscription);
+        frame[position++] = '\n';
+        position = put(frame, position, MESSAGE_ID_KEY);
+        position = putAscii(frame, position, messageId);
+        frame[position++] = '\n';
+        put(frame, position, tail);
+        return frame;
+    }
+
+    // The shared headers, blank line, payload and terminating NUL, encoded by the regular encoder.
+    private byte[] tailFor(Map<String, List<String>> nativeHeaders, byte[] payload) {
+        int slot = System.identityHashCode(payload) & (CACHE_SLOTS - 1);
+        SharedTail cached = tails.get(slot);
+        if (cached != null && cached.payload() == payload && cached.matches(nativeHeaders)) {
+            return cached.bytes();
+        }
+        Map<String, List<String>> shared = new LinkedHashMap<>();
+        nativeHeaders.forEach((name, values) -> {
+            if (!isPerSession(name)) {
+                shared.put(name, List.copyOf(values));
+            }
+        });
+        byte[] encoded = super.encode(
+                StompHeaderAccessor.create(StompCommand.MESSAGE, shared).getMessageHeaders(), payload);
+        byte[] tail = new byte[encoded.length - MESSAGE_COMMAND.length];
+        System.arraycopy(encoded, MESSAGE_COMMAND.length, tail, 0, tail.length);
+        tails.set(slot, new SharedTail(payload, shared, tail));
+        return tail;
+    }
+
+    // The header's only value, or null when it is missing, repeated, or would need escaping or UTF-8 encoding.
+    private static String singleValue(Map<String, List<String>> nativeHeaders, String name) {
+        List<String> values = nativeHeaders != null ? nativeHeaders.get(name) : null;
+        if (values == null || values.size() != 1) {
+            return null;
+        }
+        String value = values.get(0);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c > 0x7e || c == ':' || c == '\\' || c == '\n' || c == '\r') {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    private static boolean isPerSession(String header) {
+        return header.equals(StompHeaderAccessor.STOMP_SUBSCRIPTION_HEADER)
+                || header.equals(StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER);
+    }
+
+    private static int put(byte[] target, int position, byte[] source) {
+        System.arraycopy(source, 0, target, position, source.length);
+        return position + source.length;
+    }
+
+    private static int putAscii(byte[] target, int position, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            target[position++] = (byte) value.charAt(i);
+        }
+        return position;
+    }
+
+    private record SharedTail(byte[] payload, Map<String, List<String>> sharedHeaders, byte[] bytes) {
+
+        boolean matches(Map<String, List<String>> nativeHeaders) {
+            int compared = 0;
+            for (Map.Entry<String, List<String>> entry : nativeHeaders.entrySet()) {
+                if (isPerSession(entry.getKey())) {
+                    continue;
+                }
+                if (!Objects.equals(sharedHeaders.get(entry.getKey()), entry.getValue())) {
+                    return false;
+                }
+                compared++;
+            }
+            return compared == sharedHeaders.size();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.demo.websocket;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts active STOMP subscriptions per destination prefix, published as {@code chat.websocket.subscriptions}.
+ * The prefix is the first two path segments ({@code /topic/room/5} counts as {@code /topic/room}), which keeps
+ * the number of time series low; past {@value #MAX_PREFIXES} distinct prefixes the rest are counted as
+ * {@code other}, since clients choose the destinations they subscribe to.
+ */
+@Component
+public class SubscriptionMetrics {
+
+    private static final int MAX_PREFIXES = 50;
+    private static final String OTHER_PREFIX = "other";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, AtomicInteger> countsByPrefix = new ConcurrentHashMap<>();
+    // sessionId -> (subscriptionId -> prefix), to undo a session's subscriptions when it disconnects
+    private final Map<String, Map<String, String>> sessionSubscriptions = new ConcurrentHashMap<>();
+
+    public SubscriptionMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        String subscriptionId = accessor.getSubscriptionId();
+        String destination = accessor.getDestination();
+        if (sessionId == null || subscriptionId == null || destination == null) {
+            return;
+        }
+        String prefix = prefixOf(destination);
+        if (!countsByPrefix.containsKey(prefix) && countsByPrefix.size() >= MAX_PREFIXES) {
+            prefix = OTHER_PREFIX;
+        }
+        String previous = sessionSubscriptions.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+                .put(subscriptionId, prefix);
+        if (previous != null) {
+            counter(previous).decrementAndGet();
+        }
+        counter(prefix).incrementAndGet();
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        Map<String, String> subscriptions = sessionSubscriptions.get(accessor.getSessionId());
+        if (subscriptions == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        String prefix = subscriptions.remove(accessor.getSubscriptionId());
+        if (prefix != null) {
+            counter(prefix).decrementAndGet();
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Map<String, String> subscriptions = sessionSubscriptions.remove(event.getSessionId());
+        if (subscriptions != null) {
+            subscriptions.values().forEach(prefix -> counter(prefix).decrementAndGet());
+        }
+    }
+
+    private AtomicInteger counter(String prefix) {
+        return countsByPrefix.computeIfAbsent(prefix, p -> {
+            AtomicInteger count = new AtomicInteger();
+            Gauge.builder("chat.websocket.subscriptions", count, AtomicInteger::get)
+                    .description("Active STOMP subscriptions")
+                    .tag("prefix", p)
+                    .register(meterRegistry);
+            return count;
+        });
+    }
+
+    static String prefixOf(String destination) {
+        int first = destination.indexOf('/', 1);
+        if (first < 0) {
+            return destination;
+        }
+        int second = destination.indexOf('/', first + 1);
+        return second < 0 ? destination : destination.substring(0, second);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.demo.cluster;
+
+import com.example.demo.DemoApplication;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs two nodes in one JVM, joined through the embedded cluster transport, and checks that a direct message sent on
+ * one node reaches its receiver connected to the other.
+ */
+class EmbeddedClusterRelayTest {
+
+    @TempDir
+    Path dataDir;
+
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+    private final List<StompSession> sessions = new ArrayList<>();
+    private ThreadPoolTaskScheduler stompScheduler;
+
+    @AfterEach
+    void stop() {
+        sessions.forEach(StompSession::disconnect);
+        if (stompScheduler != null) {
+            stompScheduler.shutdown();
+        }
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    void directMessageSentOnOneNodeReachesReceiverOnTheOther() throws Exception {
+        String clusterName = "test-" + UUID.randomUUID();
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        String keys = "test:" + Base64.getEncoder().encodeToString(secret);
+        int portA = startNode("a", clusterName, keys);
+        int portB = startNode("b", clusterName, keys);
+
+        BlockingQueue<Map<String, Object>> received = new LinkedBlockingQueue<>();
+        StompSession receiver = connect(portA, token(portA, "user@chat.com", "user123"));
+        receiver.subscribe("/user/queue/messages", new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add((Map<String, Object>) payload);
+            }
+        });
+        // The simple broker sends no receipt for SUBSCRIBE, so give node A a moment to register it.
+        Thread.sleep(500);
+
+        StompSession sender = connect(portB, token(portB, "admin@chat.com", "admin123"));
+        sender.send("/app/chat.sendMessage", Map.of("content", "across nodes", "senderId", 1, "receiverId", 2));
+
+        Map<String, Object> message = received.poll(10, TimeUnit.SECONDS);
+        assertThat(message).isNotNull();
+        assertThat(message).containsEntry("content", "across nodes").containsEntry("senderId", 1)
+                .containsEntry("receiverId", 2).containsEntry("seq", 1);
+        assertThat(received.poll(500, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    private int startNode(String name, String clusterName, String keys) {
+        ConfigurableApplicationContext node = new SpringApplicationBuilder(DemoApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:" + clusterName + "-" + name,
+                "--logging.level.org.hibernate.SQL=WARN",
+                "--logging.level.org.hibernate.orm.jdbc.bind=WARN",
+                "--chat.cluster.enabled=true",
+                "--chat.cluster.name=" + clusterName,
+                "--chat.cluster.node-id=" + name,
+                "--chat.auth.token.enabled=true",
+                "--chat.auth.token.keys=" + keys,
+                // The mailbox is per node and would hold the message on the node the receiver is not connected to.
+                "--chat.mailbox.enabled=false",
+                "--chat.search.index-dir=" + dataDir.resolve(name).resolve("search-index"));
+        nodes.add(node);
+        return Integer.parseInt(node.getEnvironment().getRequiredProperty("local.server.port"));
+    }
+
+    private static String token(int port, String email, String password) {
+        Map<?, ?> response = new RestTemplate().postForObject(
+                "http://localhost:" + port + "/api/auth/token?email={email}&password={password}", null, Map.class,
+                email, password);
+        assertThat(response).isNotNull();
+        return (String) response.get("token");
+    }
+
+    private StompSession connect(int port, String token) throws Exception {
+        if (stompScheduler == null) {
+            stompScheduler = new ThreadPoolTaskScheduler();
+            stompScheduler.initialize();
+        }
+        WebSocketStompClient client = new WebSocketStompClient(new StandardWebSocketClient());
+        client.setMessageConverter(new MappingJackson2MessageConverter());
+        client.setTaskScheduler(stompScheduler);
+        StompSession session = client.connectAsync("ws://localhost:" + port + "/ws?access_token=" + token,
+                new StompSessionHandlerAdapter() {
+                }).get(10, TimeUnit.SECONDS);
+        sessions.add(session);
+        return session;
+    }
+}
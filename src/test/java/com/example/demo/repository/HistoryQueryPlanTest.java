@@ -0,0 +1,94 @@
+package com.example.demo.repository;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs H2's EXPLAIN on the SQL Hibernate generates for the history page queries and checks that each reads its
+ * history index in order rather than scanning or sorting chat_messages.
+ */
+@SpringBootTest(properties = {
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+                + "com.example.demo.repository.HistoryQueryPlanTest$RecordingInspector",
+        "chat.search.enabled=false",
+        "chat.mailbox.enabled=false"
+})
+class HistoryQueryPlanTest {
+
+    private static final PageRequest PAGE = PageRequest.of(0, 20);
+    private static final LocalDateTime BEFORE = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void clearRecorded() {
+        RecordingInspector.statements.clear();
+    }
+
+    @Test
+    void latestConversationPageUsesConversationIndex() {
+        chatMessageRepository.findLatestConversationMessages("1:2", PAGE);
+
+        assertThat(explain("1:2", 0, PAGE.getPageSize()))
+                .contains("IDX_CHAT_MESSAGES_CONVERSATION", "index sorted").doesNotContain("tableScan");
+    }
+
+    @Test
+    void olderConversationPageUsesConversationIndex() {
+        chatMessageRepository.findConversationMessagesBefore("1:2", BEFORE, 100L, PAGE);
+
+        assertThat(explain("1:2", BEFORE, BEFORE, 100L, 0, PAGE.getPageSize()))
+                .contains("IDX_CHAT_MESSAGES_CONVERSATION", "index sorted").doesNotContain("tableScan");
+    }
+
+    @Test
+    void latestRoomPageUsesRoomIndex() {
+        chatMessageRepository.findLatestChatRoomMessages(1L, PAGE);
+
+        assertThat(explain(1L, ChatMessageRepository.NO_EARLIER_THAN, 0, PAGE.getPageSize()))
+                .contains("IDX_CHAT_MESSAGES_ROOM", "index sorted").doesNotContain("tableScan");
+    }
+
+    @Test
+    void olderRoomPageUsesRoomIndex() {
+        chatMessageRepository.findChatRoomMessagesBefore(1L, BEFORE, 100L, PAGE);
+
+        assertThat(explain(1L, BEFORE, BEFORE, 100L, 0, PAGE.getPageSize()))
+                .contains("IDX_CHAT_MESSAGES_ROOM", "index sorted").doesNotContain("tableScan");
+    }
+
+    // Explains the one statement the repository call ran, bound to the same values.
+    private String explain(Object... args) {
+        assertThat(RecordingInspector.statements).hasSize(1);
+        String sql = RecordingInspector.statements.get(0);
+        return jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class, args);
+    }
+
+    public static class RecordingInspector implements StatementInspector {
+
+        static final List<String> statements = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            if (sql.contains("chat_messages")) {
+                statements.add(sql);
+            }
+            return sql;
+        }
+    }
+}
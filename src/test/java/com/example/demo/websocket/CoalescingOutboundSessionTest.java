@@ -0,0 +1,107 @@
+package com.example.demo.websocket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CoalescingOutboundSessionTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService writer = Executors.newCachedThreadPool();
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final List<String> written = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        released.countDown();
+        scheduler.shutdownNow();
+        writer.shutdownNow();
+    }
+
+    @Test
+    void blockedWriteHoldsUpNeitherSendersNorOtherSessions() throws Exception {
+        WebSocketSession stalled = session(true);
+        WebSocketSession healthy = session(false);
+        CoalescingOutboundSession stalledSession = coalescing(stalled, 10_000);
+        CoalescingOutboundSession healthySession = coalescing(healthy, 10_000);
+
+        stalledSession.sendMessage(frame("a"));
+        stalledSession.sendMessage(frame("b"));
+        verify(stalled, timeout(1000)).sendMessage(any());
+        healthySession.sendMessage(frame("c"));
+
+        verify(healthy, timeout(1000)).sendMessage(any());
+        assertThat(written).containsExactly("a\0b\0", "c\0");
+    }
+
+    @Test
+    void batchesAreWrittenInOrderOnceTheSocketUnblocks() throws Exception {
+        WebSocketSession stalled = session(true);
+        CoalescingOutboundSession session = coalescing(stalled, 10_000);
+
+        session.sendMessage(frame("a"));
+        verify(stalled, timeout(1000)).sendMessage(any());
+        session.sendMessage(frame("b"));
+        session.sendMessage(frame("c"));
+        Thread.sleep(50);
+        released.countDown();
+
+        verify(stalled, timeout(1000).atLeast(2)).sendMessage(any());
+        Thread.sleep(50);
+        assertThat(written.get(0)).isEqualTo("a\0");
+        assertThat(String.join("", written)).isEqualTo("a\0b\0c\0");
+    }
+
+    @Test
+    void sessionStuckPastTheSendTimeLimitIsClosed() throws Exception {
+        WebSocketSession stalled = session(true);
+        CoalescingOutboundSession session = coalescing(stalled, 20);
+
+        session.sendMessage(frame("a"));
+        verify(stalled, timeout(1000)).sendMessage(any());
+        Thread.sleep(50);
+        session.sendMessage(frame("b"));
+
+        verify(stalled).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    private CoalescingOutboundSession coalescing(WebSocketSession delegate, long sendTimeLimitMs) {
+        return new CoalescingOutboundSession(delegate, scheduler, writer, 5, 4096, sendTimeLimitMs, 524288,
+                new CoalescingStats());
+    }
+
+    private WebSocketSession session(boolean blocking) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            written.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            if (blocking) {
+                released.await(5, TimeUnit.SECONDS);
+            }
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    private static TextMessage frame(String body) {
+        return new TextMessage(body + "\0");
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.demo.websocket;
+
+import com.example.demo.dto.ChatMessageDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatNoException;
+
+class CompactMessageCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final CompactMessageCodec codec = new CompactMessageCodec(objectMapper);
+
+    @BeforeEach
+    void connect() {
+        for (String sessionId : new String[] {"s1", "s2"}) {
+            StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+            accessor.setSessionId(sessionId);
+            accessor.addNativeHeader(CompactMessageCodec.ACCEPT_HEADER, CompactMessageCodec.CONTENT_TYPE.toString());
+            codec.negotiate(accessor);
+        }
+    }
+
+    @Test
+    void framesEncodedBeforeTheIntroductionIsSentCarryTheName() throws Exception {
+        byte[] payload = payload(1);
+        Message<?> first = codec.encodeForSession(message("s1", payload));
+        Message<?> second = codec.encodeForSession(message("s1", payload(2)));
+
+        assertThat(text(first)).contains("\"1\":\"Admin User\"");
+        assertThat(text(second)).contains("\"1\":\"Admin User\"");
+
+        codec.afterSend(second, null);
+        Message<?> third = codec.encodeForSession(message("s1", payload(3)));
+        assertThat(text(third)).doesNotContain("Admin User");
+    }
+
+    @Test
+    void unsentFramesDoNotIntroduceNames() throws Exception {
+        Message<?> failed = codec.encodeForSession(message("s1", payload(1)));
+        codec.afterSend(failed, new IllegalStateException("send failed"));
+
+        assertThat(text(codec.encodeForSession(message("s1", payload(2))))).contains("Admin User");
+    }
+
+    @Test
+    void vetoedMessageIsIgnored() {
+        assertThatNoException().isThrownBy(() -> codec.afterSend(null, new IllegalStateException("vetoed")));
+    }
+
+    @Test
+    void sessionsThatKnowTheNamesShareOnePayload() throws Exception {
+        codec.afterSend(codec.encodeForSession(message("s1", payload(1))), null);
+        codec.afterSend(codec.encodeForSession(message("s2", payload(2))), null);
+
+        byte[] broadcast = payload(3);
+        Message<?> toFirst = codec.encodeForSession(message("s1", broadcast));
+        Message<?> toSecond = codec.encodeForSession(message("s2", broadcast));
+
+        assertThat(toFirst.getPayload()).isSameAs(toSecond.getPayload());
+        assertThat(toFirst.getHeaders().get("contentType")).isEqualTo(CompactMessageCodec.CONTENT_TYPE);
+    }
+
+    private byte[] payload(long id) throws Exception {
+        return objectMapper.writeValueAsBytes(new ChatMessageDto(id, "message " + id,
+                LocalDateTime.of(2024, 1, 1, 12, 0), 1L, "Admin User", null, null, null, id));
+    }
+
+    private static Message<byte[]> message(String sessionId, byte[] payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination("/topic/public");
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    private static String text(Message<?> message) {
+        return new String((byte[]) message.getPayload(), StandardCharsets.UTF_8);
+    }
+}
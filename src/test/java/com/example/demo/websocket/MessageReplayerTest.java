@@ -0,0 +1,95 @@
+package com.example.demo.websocket;
+
+import com.example.demo.archive.MessageArchive;
+import com.example.demo.dto.ChatMessageDto;
+import com.example.demo.dto.MessageReplay;
+import com.example.demo.repository.ChatMessageRepository;
+import com.example.demo.service.RecentMessageCache;
+import com.example.demo.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MessageReplayerTest {
+
+    private static final int MAX_MESSAGES = 5;
+
+    private final RecentMessageCache recentMessageCache = mock(RecentMessageCache.class);
+    private final MessageArchive archive = mock(MessageArchive.class);
+    private final MessageChannel outbound = mock(MessageChannel.class);
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    private MessageReplayer replayer;
+    private Message<?> sent;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ObjectProvider<MessageChannel> channelProvider = mock(ObjectProvider.class);
+        when(channelProvider.getObject()).thenReturn(outbound);
+        when(outbound.send(any())).thenAnswer(invocation -> {
+            sent = invocation.getArgument(0);
+            return true;
+        });
+        ObjectProvider<MessageArchive> archiveProvider = mock(ObjectProvider.class);
+        when(archiveProvider.getIfAvailable()).thenReturn(archive);
+        replayer = new MessageReplayer(recentMessageCache, mock(ChatMessageRepository.class), mock(UserService.class),
+                objectMapper, channelProvider, archiveProvider, MAX_MESSAGES);
+    }
+
+    @Test
+    void shortReplayOfArchivedConversationIsSentTruncated() throws Exception {
+        when(recentMessageCache.roomMessagesAfter(7L, 2L)).thenReturn(Optional.of(List.of(message(11), message(12))));
+        when(archive.lastSeq(MessageArchive.roomKey(7L))).thenReturn(10L);
+
+        replayer.handled(subscribe("/topic/room/7", "7:2"), mock(SimpleBrokerMessageHandler.class));
+
+        MessageReplay replay = objectMapper.readValue((byte[]) sent.getPayload(), MessageReplay.class);
+        assertThat(replay.truncated()).isTrue();
+        assertThat(replay.messages()).extracting(ChatMessageDto::getSeq).containsExactly(11L, 12L);
+    }
+
+    @Test
+    void longReplayIsCutToMaxMessages() throws Exception {
+        List<ChatMessageDto> messages = List.of(message(3), message(4), message(5), message(6), message(7),
+                message(8));
+        when(recentMessageCache.roomMessagesAfter(7L, 2L)).thenReturn(Optional.of(messages));
+
+        replayer.handled(subscribe("/topic/room/7", "7:2"), mock(SimpleBrokerMessageHandler.class));
+
+        MessageReplay replay = objectMapper.readValue((byte[]) sent.getPayload(), MessageReplay.class);
+        assertThat(replay.truncated()).isTrue();
+        assertThat(replay.messages()).hasSize(MAX_MESSAGES);
+    }
+
+    private static Message<byte[]> subscribe(String destination, String resume) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setDestination(destination);
+        accessor.setSessionId("session");
+        accessor.setSubscriptionId("sub-0");
+        accessor.addNativeHeader(MessageReplayer.RESUME_HEADER, resume);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static ChatMessageDto message(long seq) {
+        return new ChatMessageDto(seq, "message " + seq, LocalDateTime.of(2024, 1, 1, 12, 0), 1L, "Admin User", null,
+                null, 7L, seq);
+    }
+}